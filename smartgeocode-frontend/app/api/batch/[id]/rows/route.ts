@@ -0,0 +1,20 @@
+import { NextRequest, NextResponse } from 'next/server';
+
+export const GET = async (request: NextRequest, { params }: { params: Promise<{ id: string }> }) => {
+  const { id } = await params;
+  const { searchParams } = new URL(request.url);
+  const backendUrl = process.env.BACKEND_URL || 'https://smartgeocode.io';
+
+  try {
+    const query = new URLSearchParams({ email: searchParams.get('email') || '' });
+    for (const key of ['cursor', 'limit', 'status']) {
+      const value = searchParams.get(key);
+      if (value) query.set(key, value);
+    }
+    const res = await fetch(`${backendUrl}/api/batch/${id}/rows?${query.toString()}`);
+    const data = await res.json();
+    return NextResponse.json(data, { status: res.status });
+  } catch (err) {
+    return NextResponse.json({ message: 'Batch rows load failed' }, { status: 500 });
+  }
+};
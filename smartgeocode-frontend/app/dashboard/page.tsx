@@ -63,6 +63,7 @@ export default function Dashboard() {
   // Refs are used to access the latest state inside intervals/timeouts without closure staleness
   const emailRef = useRef(''); 
   const notifiedRef = useRef<Set<number>>(new Set()); // Prevents duplicate "Success" toasts
+  const previewCountRef = useRef(0); // Rows in the current batch's preview page
 
   // =========================================================================================
   // 3. INITIALIZATION & AUTH CHECK
@@ -187,10 +188,19 @@ export default function Dashboard() {
                     ...prev,
                     status: data.status,
                     processedRows: data.processedRows,
-                    totalRows: data.totalRows,
-                    preview: data.preview || [] 
+                    totalRows: data.totalRows
                 }));
 
+                // Preview: first page of rows, fetched until it is full (the status poll carries counters only)
+                if (previewCountRef.current < 50 && data.processedRows > previewCountRef.current) {
+                    const rowsRes = await fetch(`/api/batch/${pollingBatchId}/rows?email=${encodeURIComponent(currentEmail)}&limit=50`);
+                    if (rowsRes.ok) {
+                        const page = await rowsRes.json();
+                        previewCountRef.current = (page.rows || []).length;
+                        setCurrentBatch((prev: any) => ({ ...prev, preview: page.rows || [] }));
+                    }
+                }
+
                 // UPDATE USAGE: Fetch fresh counter from DB
                 // This connects the backend increment to the frontend UI
                 if (token) {
@@ -322,6 +332,7 @@ export default function Dashboard() {
         toast.success('Batch started! Processing in background...');
         
         // CRITICAL: Start Polling Loop via State
+        previewCountRef.current = 0;
         setPollingBatchId(data.batchId);
       } else {
         setError(data.message || 'Batch processing failed to start.');
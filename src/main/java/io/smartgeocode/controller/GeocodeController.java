@@ -5,6 +5,7 @@ package io.smartgeocode.controller;
 // =========================================================================================
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.view.RedirectView;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
@@ -15,11 +16,6 @@ import org.springframework.http.HttpStatus;
 // =========================================================================================
 // SECTION 2: UTILITY IMPORTS
 // =========================================================================================
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.net.URI;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import java.util.Map;
@@ -29,14 +25,15 @@ import java.util.HashMap;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
-import java.util.concurrent.CompletableFuture; 
 import java.util.Base64;
 import java.util.Random;
 import java.util.UUID;
 import java.nio.charset.StandardCharsets;
 import jakarta.annotation.PostConstruct;
-import java.io.InputStreamReader;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 // =========================================================================================
 // SECTION 3: DATABASE & SECURITY IMPORTS
@@ -58,17 +55,15 @@ import javax.crypto.SecretKey;
 // =========================================================================================
 // SECTION 4: EXTERNAL SERVICES (CSV, EMAIL, STRIPE)
 // =========================================================================================
-import com.opencsv.CSVReader;
 import com.opencsv.exceptions.CsvValidationException;
 import io.smartgeocode.service.LookupService;
-
-import com.sendgrid.SendGrid;
-import com.sendgrid.Method;
-import com.sendgrid.helpers.mail.Mail;
-import com.sendgrid.helpers.mail.objects.Email;
-import com.sendgrid.helpers.mail.objects.Content;
-import com.sendgrid.Request;
-import com.sendgrid.Response;
+import io.smartgeocode.service.GeocodeService;
+import io.smartgeocode.service.BatchJobQueue;
+import io.smartgeocode.service.BatchResultStore;
+import io.smartgeocode.service.BatchArchiveStore;
+import io.smartgeocode.service.BatchExporter;
+import io.smartgeocode.service.BatchProgressRegistry;
+import io.smartgeocode.service.CsvUpload;
 
 import com.stripe.Stripe;
 import com.stripe.exception.StripeException;
@@ -91,19 +86,6 @@ public class GeocodeController {
     // CONFIGURATION & CONSTANTS
     // =========================================================================================
 
-    // HTTP Client: Forced to HTTP/1.1 to avoid "GOAWAY" errors from some geocoding providers
-    private final HttpClient client = HttpClient.newBuilder()
-            .version(HttpClient.Version.HTTP_1_1)
-            .build();
-            
-    private final ObjectMapper mapper = new ObjectMapper();
-    
-    // API Keys loaded from Environment Variables
-    private final String SENDGRID_API_KEY = System.getenv("SENDGRID_API_KEY");
-    
-    // Rate Limiting: 1.1s absolute minimum delay to respect Nominatim Usage Policy
-    private final int API_DELAY_MS = 1100; 
-
     // Database Connection Pool
     @Autowired
     private DataSource dataSource;
@@ -112,6 +94,33 @@ public class GeocodeController {
     @Autowired
     private LookupService lookupService;
 
+    // Geocoding Pipeline (L1 Cache -> Result Store -> Provider)
+    @Autowired
+    private GeocodeService geocodeService;
+
+    // Batch Job Queue (durable jobs, processed by BatchWorker threads)
+    @Autowired
+    private BatchJobQueue batchJobQueue;
+
+    // Row-level batch output (download / row pages)
+    @Autowired
+    private BatchResultStore batchResultStore;
+
+    // Compressed output of finished batches (downloads, row pages, exports)
+    @Autowired
+    private BatchArchiveStore batchArchiveStore;
+
+    // GeoJSON / NDJSON exports
+    @Autowired
+    private BatchExporter batchExporter;
+
+    // Live progress of batches running on this node
+    @Autowired
+    private BatchProgressRegistry progressRegistry;
+
+    // Largest page of /batch/{id}/rows
+    private static final int MAX_ROWS_PAGE = 500;
+
     // Security Components
     private final BCryptPasswordEncoder encoder = new BCryptPasswordEncoder();
     private final String JWT_SECRET;
@@ -169,7 +178,7 @@ public class GeocodeController {
             conn.prepareStatement(sqlUsers).execute();
 
             // 2. Batches Table
-            // 'results' column is TEXT to hold the full CSV output string
+            // 'results' column is TEXT: legacy full CSV output (new batches store rows in batch_results)
             String sqlBatches = "CREATE TABLE IF NOT EXISTS batches (" +
                                 "id SERIAL PRIMARY KEY, " +
                                 "user_id INTEGER REFERENCES users(id), " +
@@ -293,327 +302,121 @@ public class GeocodeController {
             // Use Token ID if valid, otherwise fallback to DB ID
             Long finalUserId = (tokenUserId != 0L) ? tokenUserId : dbUserId;
             
-            // B. Parse CSV to Count Rows (Strict Validation)
-            List<String[]> validRows = new ArrayList<>();
-            try (CSVReader reader = new CSVReader(new InputStreamReader(file.getInputStream()))) {
-                String[] line;
-                while ((line = reader.readNext()) != null) {
-                    // Skip empty lines, comments, or header-like repetition
-                    if (line.length > 0 && !line[0].trim().startsWith("#") && !allColumnsEmpty(line)) {
-                        validRows.add(line);
-                    }
+            // B. Spill Upload to Disk, then Count Rows in a Streaming Pass (memory does not grow with file size)
+            Path upload = Files.createTempFile("batch-upload-", ".csv");
+            try {
+                file.transferTo(upload);
+                int keptLines = CsvUpload.countRows(upload);
+                // Subtract 1 assuming the first row is a header
+                int rowCount = keptLines == 0 ? 0 : keptLines - 1;
+
+                System.out.println("Batch Pre-Check - UserID: " + finalUserId + ", Rows: " + rowCount);
+
+                // C. Check Usage Limits BEFORE Processing
+                if (!lookupService.canPerformLookup(finalUserId, rowCount)) {
+                    return ResponseEntity.status(403).body(Map.of("status", "error", "message", "Batch size (" + rowCount + ") exceeds remaining monthly limit. Please upgrade."));
                 }
-            }
-            // Subtract 1 assuming the first row is a header
-            int rowCount = validRows.isEmpty() ? 0 : validRows.size() - 1; 
 
-            System.out.println("Batch Pre-Check - UserID: " + finalUserId + ", Rows: " + rowCount);
+                // D. Create Batch Record + Durable Job (input rows streamed into Postgres, survives restarts)
+                int batchId = batchJobQueue.submit(finalUserId, email, upload, rowCount);
 
-            // C. Check Usage Limits BEFORE Processing
-            if (!lookupService.canPerformLookup(finalUserId, rowCount)) {
-                return ResponseEntity.status(403).body(Map.of("status", "error", "message", "Batch size (" + rowCount + ") exceeds remaining monthly limit. Please upgrade."));
-            }
+                // E. Queued - a BatchWorker on any node claims it and does the heavy lifting
+                System.out.println("Queued Batch #" + batchId + " for UserID " + finalUserId);
 
-            // D. Create Batch Record in DB
-            int batchId;
-            try (Connection conn = dataSource.getConnection()) {
-                PreparedStatement stmt = conn.prepareStatement("INSERT INTO batches (user_id, status, total_rows, processed_rows) VALUES (?, 'processing', ?, 0)", Statement.RETURN_GENERATED_KEYS);
-                stmt.setLong(1, finalUserId);
-                stmt.setInt(2, rowCount);
-                stmt.executeUpdate();
-                ResultSet keys = stmt.getGeneratedKeys();
-                keys.next();
-                batchId = keys.getInt(1);
+                return ResponseEntity.ok(Map.of("status", "success", "batchId", batchId, "message", "Processing started in background.", "totalRows", rowCount));
+            } finally {
+                Files.deleteIfExists(upload);
             }
 
-            // E. Start Async Processing Thread
-            System.out.println("Starting Async Batch #" + batchId + " for UserID " + finalUserId);
-            
-            // Fire and Forget - The thread will handle the heavy lifting
-            CompletableFuture.runAsync(() -> processBatchLogic(batchId, finalUserId, validRows, email));
-            
-            return ResponseEntity.ok(Map.of("status", "success", "batchId", batchId, "message", "Processing started in background.", "totalRows", rowCount));
-
         } catch (Exception e) {
             e.printStackTrace();
             return ResponseEntity.status(500).body(Map.of("status", "error", "message", "Server Error: " + e.getMessage()));
         }
     }
 
-    // =========================================================================================
-    // LOGIC ENGINE: WATERFALL GEOCODING PROCESSOR
-    // =========================================================================================
-    private void processBatchLogic(int batchId, Long userId, List<String[]> rows, String email) {
-        StringBuilder csvOutput = new StringBuilder();
-        // Add headers for result CSV
-        csvOutput.append("input_address,lat,lng,formatted_address,status,match_type\n");
-        
-        String[] headers = null;
-        Map<String, Integer> colMap = new HashMap<>();
-        
-        int processed = 0;
-
-        // Iterate through all rows
-        for (String[] line : rows) {
-            // 1. Process Header Row
-            if (headers == null) {
-                headers = line;
-                for(int i=0; i<headers.length; i++) {
-                    // Normalize header names to lowercase
-                    colMap.put(headers[i].toLowerCase().trim(), i);
-                }
-                // Validate required columns exist
-                if (!colMap.containsKey("address") && !colMap.containsKey("landmark")) {
-                    failBatch(batchId, "Invalid CSV: Must contain 'address' or 'landmark' column header.");
-                    return;
-                }
-                continue;
-            }
-
-            // 2. Dynamic Limit Check (Stop if user runs out of credits mid-batch)
-            if (!lookupService.canPerformLookup(userId, 1)) {
-                 csvOutput.append("\"LIMIT REACHED\",\"\",\"\",\"Upgrade to continue processing\",\"skipped\",\"limit_hit\"\n");
-                 finishBatch(batchId, csvOutput.toString(), processed);
-                 System.out.println("Batch #" + batchId + " stopped: Limit reached.");
-                 return;
-            }
-
-            // 3. Extract Data Fields (Safely handling missing columns)
-            processed++;
-            String address = getVal(line, colMap, "address");
-            String landmark = getVal(line, colMap, "landmark");
-            String city = getVal(line, colMap, "city");
-            String state = getVal(line, colMap, "state");
-            String country = getVal(line, colMap, "country");
-            String zip = getVal(line, colMap, "zip");
-
-            Map<String, Object> result = Map.of("status", "error");
-            String matchType = "none";
-
-            // --- WATERFALL STRATEGY START ---
-            // Try most specific query first, then fallback to broader queries
-            
-            // Attempt 1: Landmark + City + Country
-            if (!landmark.isEmpty()) {
-                String q = buildQuery(landmark, city, state, country);
-                result = performGeocodeRequest(q);
-                if ("success".equals(result.get("status"))) matchType = "landmark_context";
-            }
-
-            // Attempt 2: Address + City + State + Country (Standard)
-            if (!"success".equals(result.get("status")) && !address.isEmpty()) {
-                String q = buildQuery(address, city, state, country);
-                result = performGeocodeRequest(q);
-                if ("success".equals(result.get("status"))) matchType = "address_context";
-            }
-
-            // Attempt 3: Landmark Only (Global Search)
-            if (!"success".equals(result.get("status")) && !landmark.isEmpty()) {
-                result = performGeocodeRequest(landmark);
-                if ("success".equals(result.get("status"))) matchType = "landmark_only";
-            }
-
-            // Attempt 4: Address Only (Global Search)
-            if (!"success".equals(result.get("status")) && !address.isEmpty()) {
-                result = performGeocodeRequest(address);
-                if ("success".equals(result.get("status"))) matchType = "address_only";
-            }
-
-            // Attempt 5: City/Zip Fallback (Last Resort)
-            if (!"success".equals(result.get("status"))) {
-                 String q = buildQuery("", city, state, country); 
-                 if (!q.isEmpty()) {
-                     result = performGeocodeRequest(q);
-                     if ("success".equals(result.get("status"))) matchType = "city_fallback";
-                 }
-            }
-            // --- WATERFALL STRATEGY END ---
-
-            // 4. Format Output Row for CSV
-            String inputRep = (landmark + " " + address).trim();
-            // Escape double quotes for CSV safety
-            String rowString = String.format("\"%s\",\"%s\",\"%s\",\"%s\",\"%s\",\"%s\"\n", 
-                inputRep.replace("\"", "\"\""), // Escape quotes
-                result.getOrDefault("lat", ""),
-                result.getOrDefault("lng", ""),
-                result.getOrDefault("formatted_address", "").toString().replace("\"", "\"\""),
-                result.get("status"),
-                matchType
-            );
-            csvOutput.append(rowString);
-
-            // 5. Update Usage & DB (CRITICAL: LIVE COUNTER UPDATE)
-            if ("success".equals(result.get("status"))) {
-                try {
-                    // Log for debugging
-                    System.out.println("[BATCH] Match Found! Incrementing usage for User ID: " + userId);
-                    // Synchronous DB Call
-                    lookupService.incrementLookup(userId, 1);
-                } catch (Exception e) {
-                    System.err.println("[BATCH] Failed to increment usage: " + e.getMessage());
-                }
-            }
-
-            // Update Progress in DB so Frontend can poll it
-            updateBatchProgress(batchId, processed, csvOutput.toString());
-            
-            // 6. Rate Limiting (Sleep to avoid bans)
-            try { Thread.sleep(API_DELAY_MS); } catch (InterruptedException ignored) {}
-        }
-
-        // Finalize Batch
-        finishBatch(batchId, csvOutput.toString(), processed);
-        sendCompletionEmail(email, batchId, processed);
-        System.out.println("Batch #" + batchId + " Complete. Total Rows: " + processed);
-    }
-
     // =========================================================================================
     // HELPER METHODS
     // =========================================================================================
-    
-    // Safely get value from CSV row
-    private String getVal(String[] line, Map<String, Integer> map, String key) {
-        if (map.containsKey(key) && map.get(key) < line.length) {
-            String val = line[map.get(key)];
-            return val != null ? val.trim() : "";
-        }
-        return "";
-    }
-
-    // Build Query String from parts
-    private String buildQuery(String main, String city, String state, String country) {
-        List<String> parts = new ArrayList<>();
-        if (main != null && !main.isEmpty()) parts.add(main);
-        if (city != null && !city.isEmpty()) parts.add(city);
-        if (state != null && !state.isEmpty()) parts.add(state);
-        if (country != null && !country.isEmpty()) parts.add(country);
-        return String.join(", ", parts);
-    }
 
-    // Perform HTTP Request to Nominatim
+    // Perform Geocode (cache, coalescing, rate limiting and provider selection live in GeocodeService)
     private Map<String, Object> performGeocodeRequest(String query) {
-        try {
-            if (query.trim().isEmpty()) return Map.of("status", "skipped");
-            
-            String encoded = query.replace(" ", "+").replace(",", "%2C");
-            String email = System.getenv("NOMINATIM_EMAIL") != null ? System.getenv("NOMINATIM_EMAIL") : "admin@smartgeocode.io";
-            // Use q= for flexible search
-            String url = "https://nominatim.openstreetmap.org/search?format=json&email=" + email + "&q=" + encoded + "&limit=1";
-            
-            HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(url))
-                .header("User-Agent", "SmartGeocode/1.0")
-                .build();
-
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-            
-            if (response.statusCode() == 200) {
-                Object parsed = mapper.readValue(response.body(), Object.class);
-                if (parsed instanceof List && !((List<?>) parsed).isEmpty()) {
-                    Map<String, Object> first = ((List<Map<String, Object>>) parsed).get(0);
-                    return Map.of(
-                        "status", "success", 
-                        "lat", first.get("lat"), 
-                        "lng", first.get("lon"), 
-                        "formatted_address", first.get("display_name")
-                    );
-                }
-            }
-        } catch (Exception e) {
-            System.err.println("Geocode API Error: " + e.getMessage());
-        }
-        return Map.of("status", "error");
-    }
-
-    // DB Update: Progress
-    private void updateBatchProgress(int batchId, int count, String partialCsv) {
-        try (Connection conn = dataSource.getConnection()) {
-            PreparedStatement stmt = conn.prepareStatement("UPDATE batches SET processed_rows = ?, results = ? WHERE id = ?");
-            stmt.setInt(1, count);
-            stmt.setString(2, partialCsv);
-            stmt.setInt(3, batchId);
-            stmt.executeUpdate();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
-    // DB Update: Finish
-    private void finishBatch(int batchId, String csv, int total) {
-        try (Connection conn = dataSource.getConnection()) {
-            PreparedStatement stmt = conn.prepareStatement("UPDATE batches SET status = 'complete', results = ?, processed_rows = ? WHERE id = ?");
-            stmt.setString(1, csv);
-            stmt.setInt(2, total);
-            stmt.setInt(3, batchId);
-            stmt.executeUpdate();
-        } catch (Exception e) { e.printStackTrace(); }
-    }
-
-    // DB Update: Fail
-    private void failBatch(int batchId, String reason) {
-        try (Connection conn = dataSource.getConnection()) {
-            PreparedStatement stmt = conn.prepareStatement("UPDATE batches SET status = 'failed', results = ? WHERE id = ?");
-            stmt.setString(1, reason); stmt.setInt(2, batchId); stmt.executeUpdate();
-        } catch (Exception e) {}
-    }
-
-    // SendGrid Email
-    private void sendCompletionEmail(String email, int batchId, int total) {
-        Email from = new Email("noreply@smartgeocode.io");
-        Email to = new Email(email);
-        String subject = "Batch Processing Complete";
-        String body = "Your batch #" + batchId + " is done. Processed " + total + " rows.\n\nLogin to download: https://geocode-frontend.smartgeocode.io";
-        Content content = new Content("text/plain", body);
-        Mail mail = new Mail(from, subject, to, content);
-        try {
-            SendGrid sg = new SendGrid(SENDGRID_API_KEY);
-            Request request = new Request();
-            request.setMethod(Method.POST);
-            request.setEndpoint("mail/send");
-            request.setBody(mail.build());
-            sg.api(request);
-        } catch (Exception e) { e.printStackTrace(); }
+        return geocodeService.geocode(query);
     }
 
     // =========================================================================================
     // API ENDPOINTS: BATCH MANAGEMENT
     // =========================================================================================
     
+    // Counters only: a poll costs the same however large the batch is (rows are paged via /batch/{id}/rows)
     @GetMapping("/batch/{id}")
     public ResponseEntity<Map<String, Object>> getBatchStatus(@PathVariable int id, @RequestParam("email") String email) {
         try (Connection conn = dataSource.getConnection()) {
-            PreparedStatement stmt = conn.prepareStatement("SELECT status, results, total_rows, processed_rows FROM batches b JOIN users u ON b.user_id = u.id WHERE b.id = ? AND u.email = ?");
+            PreparedStatement stmt = conn.prepareStatement("SELECT status, total_rows, processed_rows FROM batches b JOIN users u ON b.user_id = u.id WHERE b.id = ? AND u.email = ?");
             stmt.setInt(1, id); stmt.setString(2, email);
             ResultSet rs = stmt.executeQuery();
             if (rs.next()) {
                 Map<String, Object> response = new HashMap<>();
                 response.put("status", rs.getString("status"));
                 response.put("totalRows", rs.getInt("total_rows"));
-                response.put("processedRows", rs.getInt("processed_rows"));
-                
-                String resCsv = rs.getString("results");
-                if (resCsv != null && !resCsv.isEmpty()) {
-                    String[] lines = resCsv.split("\n");
-                    List<Map<String, String>> preview = new ArrayList<>();
-                    for(int i=1; i<Math.min(lines.length, 51); i++) {
-                        String[] cols = lines[i].split("\",\"");
-                        if(cols.length >= 4) {
-                            preview.add(Map.of(
-                                "address", cols[0].replace("\"", ""), 
-                                "lat", cols[1], 
-                                "lng", cols[2], 
-                                "status", cols[4].replace("\"", "")
-                            ));
-                        }
-                    }
-                    response.put("preview", preview);
-                }
+                // Stored count plus rows written here but not committed yet; chunks on other nodes trail by at most one result chunk each
+                BatchProgressRegistry.Progress live = progressRegistry.get(id);
+                response.put("processedRows", rs.getInt("processed_rows") + (live != null ? live.pending() : 0));
                 return ResponseEntity.ok(response);
             }
         } catch (Exception e) {}
         return ResponseEntity.notFound().build();
     }
 
+    // One page of output rows in row order, optionally only rows with one status (e.g. status=failed).
+    // cursor is the nextCursor of the previous page; only the requested page is read: from batch_results
+    // while the batch runs, from the archive block holding the cursor once it is finished (with a status,
+    // only the blocks holding rows with that status).
+    @GetMapping("/batch/{id}/rows")
+    public ResponseEntity<Map<String, Object>> getBatchRows(@PathVariable int id, @RequestParam("email") String email,
+            @RequestParam(value = "cursor", defaultValue = "0") int cursor,
+            @RequestParam(value = "limit", defaultValue = "50") int limit,
+            @RequestParam(value = "status", required = false) String status) {
+        String batchStatus = ownedBatchStatus(id, email);
+        if (batchStatus == null) return ResponseEntity.notFound().build();
+        int pageSize = Math.max(1, Math.min(limit, MAX_ROWS_PAGE));
+        String filter = status == null || status.isBlank() ? null : status.trim();
+        try {
+            List<BatchResultStore.Row> rows;
+            boolean finished = "complete".equals(batchStatus) || "cancelled".equals(batchStatus);
+            if (finished) {
+                List<BatchResultStore.Row> archived = new ArrayList<>();
+                batchArchiveStore.readRows(id, cursor, filter, row -> {
+                    archived.add(row);
+                    return archived.size() < pageSize;
+                });
+                rows = archived;
+            } else {
+                rows = batchResultStore.rows(id, cursor, pageSize, filter);
+            }
+            List<Map<String, Object>> page = new ArrayList<>();
+            for (BatchResultStore.Row row : rows) {
+                Map<String, Object> item = new HashMap<>();
+                item.put("row", row.rowIndex());
+                item.put("address", row.inputAddress());
+                item.put("lat", row.lat());
+                item.put("lng", row.lng());
+                item.put("formattedAddress", row.formattedAddress());
+                item.put("status", row.status());
+                item.put("matchType", row.matchType());
+                page.add(item);
+            }
+            Map<String, Object> response = new HashMap<>();
+            response.put("status", "success");
+            response.put("batchId", id);
+            response.put("rows", page);
+            // Null once there is nothing more to read (for a running batch: nothing more yet)
+            response.put("nextCursor", rows.size() == pageSize ? rows.get(rows.size() - 1).rowIndex() : null);
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            return ResponseEntity.status(500).body(Map.of("status", "error", "message", "Failed to load rows: " + e.getMessage()));
+        }
+    }
+
     @GetMapping("/batches")
     public ResponseEntity<List<Map<String, Object>>> getBatches(@RequestParam("email") String email) {
         List<Map<String, Object>> list = new ArrayList<>();
@@ -632,20 +435,189 @@ public class GeocodeController {
         return ResponseEntity.ok(list);
     }
 
+    // Streams the CSV in constant memory. Finished batches have a fixed length, so they also answer
+    // single byte-range requests (resumable downloads); a batch still running streams what exists so far.
+    // Archived batches are sent as stored (e.g. Content-Encoding: gzip) when the client accepts that encoding.
+    // format=geojson|ndjson exports the same rows as GeoJSON features or newline-delimited JSON.
     @GetMapping("/batch/{id}/download")
-    public ResponseEntity<byte[]> downloadBatch(@PathVariable int id, @RequestParam("email") String email) {
+    public ResponseEntity<StreamingResponseBody> downloadBatch(@PathVariable int id, @RequestParam("email") String email,
+            @RequestParam(value = "format", defaultValue = "csv") String format,
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+            @RequestHeader(value = HttpHeaders.IF_RANGE, required = false) String ifRange,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        String status = ownedBatchStatus(id, email);
+        if (status == null) return ResponseEntity.notFound().build();
+
+        // GeoJSON / NDJSON: streamed row by row from the stored results (no length, no ranges)
+        if (!"csv".equals(format)) {
+            if (!BatchExporter.FORMATS.contains(format)) return ResponseEntity.badRequest().build();
+            boolean finished = "complete".equals(status) || "cancelled".equals(status);
+            return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"batch_" + id + "." + format + "\"")
+                .contentType(MediaType.parseMediaType(batchExporter.contentType(format)))
+                .body(out -> batchExporter.write(id, format, finished, out));
+        }
+
+        String disposition = "attachment; filename=\"batch_" + id + ".csv\"";
+        if ("processing".equals(status) || "paused".equals(status)) {
+            BatchResultStore.CsvSource source = batchResultStore.csvSource(id);
+            return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, disposition)
+                .header(HttpHeaders.ACCEPT_RANGES, "none")
+                .contentType(MediaType.parseMediaType("text/csv"))
+                .body(out -> batchResultStore.writeCsv(source, out, 0, Long.MAX_VALUE));
+        }
+
+        BatchArchiveStore.Archive archive = archiveFor(id, status);
+        if (archive == null) {
+            BatchResultStore.CsvSource source = batchResultStore.csvSource(id);
+            return rangedDownload(id, source.length(), null, disposition, range, ifRange,
+                (out, from, to) -> batchResultStore.writeCsv(source, out, from, to));
+        }
+        if (!"identity".equals(archive.encoding()) && acceptsEncoding(acceptEncoding, archive.encoding())) {
+            return rangedDownload(id, archive.storedBytes(), archive.encoding(), disposition, range, ifRange,
+                (out, from, to) -> batchArchiveStore.writeStored(archive, out, from, to));
+        }
+        return rangedDownload(id, archive.rawBytes(), null, disposition, range, ifRange,
+            (out, from, to) -> batchArchiveStore.writeDecoded(archive, out, from, to));
+    }
+
+    // A finished batch not archived yet (the worker or the sweep missed it) is archived now: the sweep
+    // deletes its rows once archived, so it is served from there. Null while the batch runs.
+    private BatchArchiveStore.Archive archiveFor(int id, String status) {
+        BatchArchiveStore.Archive archive = batchArchiveStore.find(id);
+        if (archive != null || !("complete".equals(status) || "cancelled".equals(status))) return archive;
+        try {
+            batchArchiveStore.archive(id);
+            return batchArchiveStore.find(id);
+        } catch (Exception e) {
+            System.err.println("[ARCHIVE] Batch #" + id + " could not be archived for download: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Status of the batch if it belongs to the user, null otherwise
+    private String ownedBatchStatus(int id, String email) {
         try (Connection conn = dataSource.getConnection()) {
-            PreparedStatement stmt = conn.prepareStatement("SELECT results FROM batches b JOIN users u ON b.user_id = u.id WHERE b.id = ? AND u.email = ?");
+            PreparedStatement stmt = conn.prepareStatement("SELECT status FROM batches b JOIN users u ON b.user_id = u.id WHERE b.id = ? AND u.email = ?");
             stmt.setInt(1, id); stmt.setString(2, email);
             ResultSet rs = stmt.executeQuery();
-            if (rs.next()) {
-                return ResponseEntity.ok()
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"batch_" + id + ".csv\"")
-                    .contentType(MediaType.parseMediaType("text/csv"))
-                    .body(rs.getString("results").getBytes(StandardCharsets.UTF_8));
-            }
+            if (rs.next()) return rs.getString("status");
         } catch(Exception e) {}
-        return ResponseEntity.notFound().build();
+        return null;
+    }
+
+    private interface RangeWriter {
+        void write(OutputStream out, long from, long to) throws IOException;
+    }
+
+    // 200 with the whole body, 206 for one satisfiable byte range, 416 otherwise. A range of an encoded
+    // body counts bytes of the encoded form, and its ETag names the encoding so the two never mix on resume.
+    private ResponseEntity<StreamingResponseBody> rangedDownload(int id, long length, String encoding, String disposition,
+            String range, String ifRange, RangeWriter writer) {
+        String etag = "\"batch-" + id + "-" + length + (encoding != null ? "-" + encoding : "") + "\"";
+        long from = 0, to = length - 1;
+        boolean partial = false;
+        // If-Range with a different validator means the client's copy is stale: send the whole file
+        if (range != null && (ifRange == null || ifRange.equals(etag))) {
+            long[] bounds = parseRange(range, length);
+            if (bounds != null && bounds.length == 0) {
+                return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header(HttpHeaders.CONTENT_RANGE, "bytes */" + length)
+                    .build();
+            }
+            if (bounds != null) {
+                from = bounds[0]; to = bounds[1];
+                partial = true;
+            }
+        }
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(partial ? HttpStatus.PARTIAL_CONTENT : HttpStatus.OK)
+            .header(HttpHeaders.CONTENT_DISPOSITION, disposition)
+            .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+            .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+            .eTag(etag)
+            .contentType(MediaType.parseMediaType("text/csv"))
+            .contentLength(to - from + 1);
+        if (encoding != null) response.header(HttpHeaders.CONTENT_ENCODING, encoding);
+        if (partial) response.header(HttpHeaders.CONTENT_RANGE, "bytes " + from + "-" + to + "/" + length);
+        long start = from, end = to;
+        return response.body(out -> writer.write(out, start, end));
+    }
+
+    // True if Accept-Encoding lists the encoding without q=0
+    static boolean acceptsEncoding(String header, String encoding) {
+        if (header == null) return false;
+        for (String part : header.split(",")) {
+            String[] token = part.trim().split(";");
+            if (!token[0].trim().equalsIgnoreCase(encoding)) continue;
+            return token.length < 2 || !token[1].trim().matches("q=0(\\.0*)?");
+        }
+        return false;
+    }
+
+    // One byte range: "bytes=a-b", "bytes=a-" or "bytes=-n". Returns null to ignore the header
+    // (malformed or multi-range: the full file is sent), an empty array when nothing of it is satisfiable.
+    static long[] parseRange(String header, long length) {
+        if (!header.startsWith("bytes=") || header.contains(",")) return null;
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) return null;
+        try {
+            if (dash == 0) {
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0) return new long[0];
+                return new long[] { Math.max(0, length - suffix), length - 1 };
+            }
+            long from = Long.parseLong(spec.substring(0, dash));
+            long to = dash == spec.length() - 1 ? Long.MAX_VALUE : Long.parseLong(spec.substring(dash + 1));
+            if (from < 0 || to < from) return null;
+            if (from >= length) return new long[0];
+            return new long[] { from, Math.min(to, length - 1) };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Cancel / pause take effect before the batch's next row; rows already written stay downloadable
+    @PostMapping("/batch/{id}/cancel")
+    public ResponseEntity<Map<String, Object>> cancelBatch(@PathVariable int id, @RequestParam("email") String email) {
+        return controlBatch(id, email, "cancel", List.of("cancelled", "cancelling"));
+    }
+
+    @PostMapping("/batch/{id}/pause")
+    public ResponseEntity<Map<String, Object>> pauseBatch(@PathVariable int id, @RequestParam("email") String email) {
+        return controlBatch(id, email, "pause", List.of("paused", "pausing"));
+    }
+
+    // Picks a paused batch up again from its last committed row
+    @PostMapping("/batch/{id}/resume")
+    public ResponseEntity<Map<String, Object>> resumeBatch(@PathVariable int id, @RequestParam("email") String email) {
+        return controlBatch(id, email, "resume", List.of("queued", "running"));
+    }
+
+    private ResponseEntity<Map<String, Object>> controlBatch(int id, String email, String action, List<String> accepted) {
+        try {
+            try (Connection conn = dataSource.getConnection()) {
+                PreparedStatement stmt = conn.prepareStatement("SELECT b.id FROM batches b JOIN users u ON b.user_id = u.id WHERE b.id = ? AND u.email = ?");
+                stmt.setInt(1, id); stmt.setString(2, email);
+                if (!stmt.executeQuery().next()) return ResponseEntity.notFound().build();
+            }
+
+            String state = "resume".equals(action) ? batchJobQueue.resume(id) : batchJobQueue.requestStop(id, action);
+            if (state == null || !accepted.contains(state)) {
+                return ResponseEntity.status(409).body(Map.of("status", "error", "message", "Batch #" + id + " cannot " + action + " (job is " + state + ")"));
+            }
+            // Running on this node: stop now rather than at the worker's next poll (other nodes poll batch_jobs)
+            if (state.endsWith("ing") && !"running".equals(state)) progressRegistry.requestStop(id, action);
+            // Stopped while queued: hand back whatever a previous attempt still had reserved
+            if ("cancelled".equals(state) || "paused".equals(state)) lookupService.settleCredits(id);
+
+            System.out.println("Batch #" + id + " " + action + " requested: " + state);
+            return ResponseEntity.ok(Map.of("status", "success", "batchId", id, "state", state));
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.status(500).body(Map.of("status", "error", "message", "Server Error: " + e.getMessage()));
+        }
     }
 
     // =========================================================================================
@@ -723,6 +695,7 @@ public class GeocodeController {
         Map<String, Object> response = new HashMap<>();
         response.put("used", usageData.getOrDefault("used", 0));
         response.put("limit", usageData.getOrDefault("limit", 500));
+        response.put("reserved", usageData.getOrDefault("reserved", 0));
         
         return ResponseEntity.ok()
             .header(HttpHeaders.CACHE_CONTROL, "no-cache, no-store, must-revalidate")
@@ -810,11 +783,4 @@ public class GeocodeController {
             return ResponseEntity.ok("Received");
         } catch (Exception e) { return ResponseEntity.status(400).body("Error"); }
     }
-    
-    // === RESTORED HELPER METHOD ===
-    private boolean allColumnsEmpty(String[] line) {
-        if (line == null) return true;
-        for(String s : line) if(s != null && !s.trim().isEmpty()) return false;
-        return true;
-    }
 }
\ No newline at end of file
@@ -0,0 +1,7 @@
+package io.smartgeocode.provider;
+
+/**
+ * Best candidate returned by a provider. Coordinates are kept as the provider's decimal strings.
+ */
+public record GeocodeMatch(String lat, String lng, String formattedAddress, String matchClass, String matchType) {
+}
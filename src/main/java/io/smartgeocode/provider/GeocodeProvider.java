@@ -0,0 +1,55 @@
+package io.smartgeocode.provider;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * GeocodeProvider
+ * SPI for forward geocoding backends. Implementations only talk to their backend;
+ * caching, coalescing, rate limiting and concurrency limiting are applied by GeocodeService
+ * using the limits each provider declares here.
+ */
+public interface GeocodeProvider {
+
+  enum Capability {
+    REMOTE,     // Calls over the network (otherwise in-process)
+    FREE_TEXT,  // Accepts single-line free text queries
+    POI         // Resolves landmarks / points of interest, not just addresses
+  }
+
+  /** Short identifier, stored alongside cached results and used in GEOCODE_PROVIDER. */
+  String name();
+
+  /** Maximum sustained requests per second; 0 or less means unlimited. */
+  double requestsPerSecond();
+
+  /** Maximum requests in flight at once against this backend. */
+  int maxConcurrency();
+
+  Set<Capability> capabilities();
+
+  /**
+   * Geocodes a free text query.
+   * Returns empty when the backend answered but found nothing; throws on transport or backend errors
+   * (those must not be cached as "no result").
+   */
+  Optional<GeocodeMatch> geocode(String query) throws IOException, InterruptedException;
+
+  /**
+   * Non-blocking variant used by the batch pipeline. Same contract as geocode(): completes empty for
+   * "no result" and exceptionally on errors. The default runs the blocking call on the common pool;
+   * remote providers should override it with a truly asynchronous request.
+   */
+  default CompletableFuture<Optional<GeocodeMatch>> geocodeAsync(String query) {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return geocode(query);
+      } catch (IOException | InterruptedException e) {
+        throw new CompletionException(e);
+      }
+    });
+  }
+}
@@ -0,0 +1,42 @@
+package io.smartgeocode.provider;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import java.util.List;
+
+/**
+ * Resolves the active provider from GEOCODE_PROVIDER (nominatim | selfhosted | stub).
+ */
+@Component
+public class GeocodeProviderRegistry {
+
+  @Autowired
+  private List<GeocodeProvider> providers;
+
+  @Value("${geocode.provider:nominatim}")
+  private String activeName;
+
+  private GeocodeProvider active;
+
+  @PostConstruct
+  public void init() {
+    active = get(activeName);
+    System.out.println("Geocode Provider: " + active.name() + " (" +
+        (active.requestsPerSecond() > 0 ? active.requestsPerSecond() + " req/s" : "unlimited rate") +
+        ", max " + active.maxConcurrency() + " in flight, " + active.capabilities() + ")");
+  }
+
+  public GeocodeProvider active() {
+    return active;
+  }
+
+  public GeocodeProvider get(String name) {
+    return providers.stream()
+        .filter(p -> p.name().equalsIgnoreCase(name))
+        .findFirst()
+        .orElseThrow(() -> new IllegalStateException("Unknown geocode provider: " + name));
+  }
+}
@@ -0,0 +1,185 @@
+package io.smartgeocode.provider;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Shared HTTP plumbing and response mapping for Nominatim- and Photon-compatible backends.
+ * Responses are parsed token by token straight off the response stream: only the fields we
+ * keep are materialized, and parsing stops after the first candidate.
+ */
+public abstract class HttpGeocodeProvider implements GeocodeProvider {
+
+  // HTTP Client: Forced to HTTP/1.1 to avoid "GOAWAY" errors from some geocoding providers
+  protected final HttpClient client = HttpClient.newBuilder()
+      .version(HttpClient.Version.HTTP_1_1)
+      .connectTimeout(Duration.ofSeconds(10))
+      .build();
+
+  // Thread-safe and reusable; parsers are cheap per-call objects
+  protected static final JsonFactory JSON = new JsonFactory();
+
+  /** Full request URI for the query. */
+  protected abstract URI buildUri(String encodedQuery);
+
+  /** Maps a 200 response body to the first candidate. */
+  protected abstract Optional<GeocodeMatch> parse(JsonParser parser) throws IOException;
+
+  @Override
+  public Optional<GeocodeMatch> geocode(String query) throws IOException, InterruptedException {
+    return handle(client.send(buildRequest(query), HttpResponse.BodyHandlers.ofInputStream()));
+  }
+
+  @Override
+  public CompletableFuture<Optional<GeocodeMatch>> geocodeAsync(String query) {
+    // Completes on the HttpClient's executor once headers arrive; the body is then streamed into the parser
+    return client.sendAsync(buildRequest(query), HttpResponse.BodyHandlers.ofInputStream())
+        .thenApply(response -> {
+          try {
+            return handle(response);
+          } catch (IOException e) {
+            throw new CompletionException(e);
+          }
+        });
+  }
+
+  private HttpRequest buildRequest(String query) {
+    return HttpRequest.newBuilder()
+        .uri(buildUri(URLEncoder.encode(query, StandardCharsets.UTF_8)))
+        .header("User-Agent", "SmartGeocode/1.0")
+        .timeout(Duration.ofSeconds(30))
+        .build();
+  }
+
+  private Optional<GeocodeMatch> handle(HttpResponse<InputStream> response) throws IOException {
+    try (InputStream body = response.body()) {
+      if (response.statusCode() != 200) {
+        throw new IOException(name() + " returned HTTP " + response.statusCode());
+      }
+      try (JsonParser parser = JSON.createParser(body)) {
+        return parse(parser);
+      }
+    }
+  }
+
+  // Nominatim format: [{"lat":"..","lon":"..","display_name":"..","class":"..","type":"..", ...}, ...]
+  protected static Optional<GeocodeMatch> parseNominatim(JsonParser parser) throws IOException {
+    if (parser.nextToken() != JsonToken.START_ARRAY) return Optional.empty();
+    if (parser.nextToken() != JsonToken.START_OBJECT) return Optional.empty();
+
+    String lat = null;
+    String lng = null;
+    String displayName = "";
+    String matchClass = null;
+    String matchType = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.currentName();
+      JsonToken value = parser.nextToken();
+      switch (field) {
+        case "lat" -> lat = parser.getText();
+        case "lon" -> lng = parser.getText();
+        case "display_name" -> displayName = parser.getText();
+        case "class" -> matchClass = parser.getText();
+        case "type" -> matchType = parser.getText();
+        default -> {
+          if (value.isStructStart()) parser.skipChildren();
+        }
+      }
+    }
+    if (lat == null || lng == null) return Optional.empty();
+    return Optional.of(new GeocodeMatch(lat, lng, displayName, matchClass, matchType));
+  }
+
+  // Photon format: GeoJSON FeatureCollection, coordinates are [lon, lat]
+  protected static Optional<GeocodeMatch> parsePhoton(JsonParser parser) throws IOException {
+    if (parser.nextToken() != JsonToken.START_OBJECT) return Optional.empty();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.currentName();
+      JsonToken value = parser.nextToken();
+      if ("features".equals(field) && value == JsonToken.START_ARRAY) {
+        return parser.nextToken() == JsonToken.START_OBJECT ? parsePhotonFeature(parser) : Optional.empty();
+      }
+      if (value.isStructStart()) parser.skipChildren();
+    }
+    return Optional.empty();
+  }
+
+  private static Optional<GeocodeMatch> parsePhotonFeature(JsonParser parser) throws IOException {
+    String lat = null;
+    String lng = null;
+    String[] label = new String[7]; // name, housenumber, street, city, state, postcode, country
+    String matchClass = null;
+    String matchType = null;
+
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.currentName();
+      JsonToken value = parser.nextToken();
+      if ("geometry".equals(field) && value == JsonToken.START_OBJECT) {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          String geoField = parser.currentName();
+          JsonToken geoValue = parser.nextToken();
+          if ("coordinates".equals(geoField) && geoValue == JsonToken.START_ARRAY) {
+            int position = 0;
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+              if (position == 0) lng = parser.getText();
+              else if (position == 1) lat = parser.getText();
+              position++;
+            }
+          } else if (geoValue.isStructStart()) {
+            parser.skipChildren();
+          }
+        }
+      } else if ("properties".equals(field) && value == JsonToken.START_OBJECT) {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          String prop = parser.currentName();
+          JsonToken propValue = parser.nextToken();
+          if (propValue.isStructStart()) {
+            parser.skipChildren();
+            continue;
+          }
+          switch (prop) {
+            case "name" -> label[0] = parser.getText();
+            case "housenumber" -> label[1] = parser.getText();
+            case "street" -> label[2] = parser.getText();
+            case "city" -> label[3] = parser.getText();
+            case "state" -> label[4] = parser.getText();
+            case "postcode" -> label[5] = parser.getText();
+            case "country" -> label[6] = parser.getText();
+            case "osm_key" -> matchClass = parser.getText();
+            case "osm_value" -> matchType = parser.getText();
+            default -> { }
+          }
+        }
+      } else if (value.isStructStart()) {
+        parser.skipChildren();
+      }
+    }
+    if (lat == null || lng == null) return Optional.empty();
+    return Optional.of(new GeocodeMatch(lat, lng, photonLabel(label), matchClass, matchType));
+  }
+
+  private static String photonLabel(String[] parts) {
+    StringBuilder label = new StringBuilder();
+    String street = ((parts[1] == null ? "" : parts[1]) + " " + (parts[2] == null ? "" : parts[2])).trim();
+    for (String part : new String[] {parts[0], street, parts[3], parts[4], parts[5], parts[6]}) {
+      if (part == null || part.isEmpty()) continue;
+      if (label.length() > 0) label.append(", ");
+      label.append(part);
+    }
+    return label.toString();
+  }
+}
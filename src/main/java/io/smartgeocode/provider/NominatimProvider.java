@@ -0,0 +1,56 @@
+package io.smartgeocode.provider;
+
+import com.fasterxml.jackson.core.JsonParser;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.EnumSet;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Public OpenStreetMap Nominatim. Usage Policy: max 1 request/second, identify via email.
+ */
+@Component
+public class NominatimProvider extends HttpGeocodeProvider {
+
+  @Value("${geocode.nominatim.email:admin@smartgeocode.io}")
+  private String email;
+
+  // 0.9/s keeps the historical 1.1s safety margin under the 1 req/s policy
+  @Value("${geocode.nominatim.rate-per-second:0.9}")
+  private double ratePerSecond;
+
+  @Override
+  public String name() {
+    return "nominatim";
+  }
+
+  @Override
+  public double requestsPerSecond() {
+    return ratePerSecond;
+  }
+
+  @Override
+  public int maxConcurrency() {
+    return 1;
+  }
+
+  @Override
+  public Set<Capability> capabilities() {
+    return EnumSet.of(Capability.REMOTE, Capability.FREE_TEXT, Capability.POI);
+  }
+
+  @Override
+  protected URI buildUri(String encodedQuery) {
+    // Use q= for flexible search
+    return URI.create("https://nominatim.openstreetmap.org/search?format=json&limit=1&email=" + email + "&q=" + encodedQuery);
+  }
+
+  @Override
+  protected Optional<GeocodeMatch> parse(JsonParser parser) throws IOException {
+    return parseNominatim(parser);
+  }
+}
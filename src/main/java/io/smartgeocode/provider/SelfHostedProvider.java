@@ -0,0 +1,70 @@
+package io.smartgeocode.provider;
+
+import com.fasterxml.jackson.core.JsonParser;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.EnumSet;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Self-hosted Nominatim or Photon instance. No usage policy applies, so rate and
+ * concurrency are whatever the instance can take (unlimited rate by default).
+ */
+@Component
+public class SelfHostedProvider extends HttpGeocodeProvider {
+
+  @Value("${geocode.selfhosted.url:http://localhost:8080}")
+  private String baseUrl;
+
+  // "nominatim" (/search?format=json) or "photon" (/api?q=)
+  @Value("${geocode.selfhosted.flavor:nominatim}")
+  private String flavor;
+
+  @Value("${geocode.selfhosted.rate-per-second:0}")
+  private double ratePerSecond;
+
+  @Value("${geocode.selfhosted.max-concurrency:8}")
+  private int maxConcurrency;
+
+  @Override
+  public String name() {
+    return "selfhosted";
+  }
+
+  @Override
+  public double requestsPerSecond() {
+    return ratePerSecond;
+  }
+
+  @Override
+  public int maxConcurrency() {
+    return maxConcurrency;
+  }
+
+  @Override
+  public Set<Capability> capabilities() {
+    return EnumSet.of(Capability.REMOTE, Capability.FREE_TEXT, Capability.POI);
+  }
+
+  @Override
+  protected URI buildUri(String encodedQuery) {
+    String base = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+    if (isPhoton()) {
+      return URI.create(base + "/api?limit=1&q=" + encodedQuery);
+    }
+    return URI.create(base + "/search?format=json&limit=1&q=" + encodedQuery);
+  }
+
+  @Override
+  protected Optional<GeocodeMatch> parse(JsonParser parser) throws IOException {
+    return isPhoton() ? parsePhoton(parser) : parseNominatim(parser);
+  }
+
+  private boolean isPhoton() {
+    return "photon".equalsIgnoreCase(flavor);
+  }
+}
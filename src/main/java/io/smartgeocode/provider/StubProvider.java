@@ -0,0 +1,78 @@
+package io.smartgeocode.provider;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process stand-in for testing and load runs. Answers are deterministic per query
+ * (same query, same coordinates) and a configurable share of queries "find nothing".
+ */
+@Component
+public class StubProvider implements GeocodeProvider {
+
+  @Value("${geocode.stub.latency-ms:0}")
+  private long latencyMs;
+
+  // Fraction of queries (0.0 - 1.0) answered with "no result"
+  @Value("${geocode.stub.miss-rate:0.0}")
+  private double missRate;
+
+  @Value("${geocode.stub.max-concurrency:64}")
+  private int maxConcurrency;
+
+  @Override
+  public String name() {
+    return "stub";
+  }
+
+  @Override
+  public double requestsPerSecond() {
+    return 0;
+  }
+
+  @Override
+  public int maxConcurrency() {
+    return maxConcurrency;
+  }
+
+  @Override
+  public Set<Capability> capabilities() {
+    return EnumSet.of(Capability.FREE_TEXT, Capability.POI);
+  }
+
+  @Override
+  public Optional<GeocodeMatch> geocode(String query) throws InterruptedException {
+    if (latencyMs > 0) Thread.sleep(latencyMs);
+    return answer(query);
+  }
+
+  @Override
+  public CompletableFuture<Optional<GeocodeMatch>> geocodeAsync(String query) {
+    // Simulated latency without parking a thread, like a real in-flight request
+    if (latencyMs <= 0) return CompletableFuture.completedFuture(answer(query));
+    return CompletableFuture.supplyAsync(() -> answer(query),
+        CompletableFuture.delayedExecutor(latencyMs, TimeUnit.MILLISECONDS));
+  }
+
+  private Optional<GeocodeMatch> answer(String query) {
+    int hash = query.trim().toLowerCase(Locale.ROOT).hashCode();
+    if (Math.floorMod(hash, 10_000) < missRate * 10_000) return Optional.empty();
+
+    // Spread answers over the globe: lat in [-60, 60], lng in [-180, 180]
+    double lat = (Math.floorMod(hash, 1_200_000) / 10_000.0) - 60.0;
+    double lng = (Math.floorMod(hash * 31 + 7, 3_600_000) / 10_000.0) - 180.0;
+    return Optional.of(new GeocodeMatch(
+        String.format(Locale.ROOT, "%.7f", lat),
+        String.format(Locale.ROOT, "%.7f", lng),
+        "Stub result for " + query,
+        "stub",
+        "stub"));
+  }
+}
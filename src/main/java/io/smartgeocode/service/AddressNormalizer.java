@@ -0,0 +1,171 @@
+package io.smartgeocode.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * AddressNormalizer
+ * Canonical form of a geocode query, used for cache keys (L1, Result Store, single-flight) and
+ * batch deduplication. The provider still receives the original text.
+ * Steps: Unicode NFKC, accent and case folding, punctuation/whitespace collapse, state and country
+ * names replaced by marked codes ("us-tx", "@de") when they make up a whole comma-separated part in their
+ * position (the country last, a US state after at least one other part and before the country, if that is
+ * absent or US), then USPS-style street type, directional and unit abbreviations per word.
+ * The markers keep states and countries apart: folding leaves no punctuation, so no written word can
+ * look like one. A last part that could be either ("CA", "DE", "Georgia") stays as written.
+ * So "123 Main St., Austin, Texas, USA" and "123 main street, austin, tx, us" share one key, while
+ * "New York, USA" (the city) and "NY, USA" do not, nor do "Berlin, Delaware" and "Berlin, Germany".
+ * Keys longer than the key column end in a hash of the whole key instead of being cut, so two long
+ * queries never share a key.
+ *
+ * Corpus report and micro-benchmark: AddressNormalizerBenchmark (src/test).
+ */
+public final class AddressNormalizer {
+
+  private static final int MAX_KEY_LENGTH = 1000;
+
+  private static final Map<String, String> WORDS = new HashMap<>();
+  private static final Map<String, String> US_STATES = new HashMap<>();
+  private static final Set<String> US_STATE_CODES = new HashSet<>();
+
+  static {
+    String[][] words = {
+        // Street types (USPS Publication 28)
+        {"street", "st"}, {"str", "st"}, {"avenue", "ave"}, {"av", "ave"}, {"aven", "ave"}, {"boulevard", "blvd"},
+        {"boul", "blvd"}, {"road", "rd"}, {"drive", "dr"}, {"drv", "dr"}, {"lane", "ln"}, {"court", "ct"},
+        {"place", "pl"}, {"terrace", "ter"}, {"highway", "hwy"}, {"parkway", "pkwy"}, {"pky", "pkwy"},
+        {"expressway", "expy"}, {"freeway", "fwy"}, {"circle", "cir"}, {"square", "sq"}, {"trail", "trl"},
+        {"alley", "aly"}, {"crescent", "cres"}, {"center", "ctr"}, {"centre", "ctr"}, {"plaza", "plz"},
+        {"point", "pt"}, {"heights", "hts"}, {"junction", "jct"}, {"turnpike", "tpke"}, {"mount", "mt"},
+        {"mountain", "mtn"}, {"fort", "ft"}, {"saint", "st"}, {"route", "rte"}, {"causeway", "cswy"},
+        // Directionals
+        {"north", "n"}, {"south", "s"}, {"east", "e"}, {"west", "w"},
+        {"northeast", "ne"}, {"northwest", "nw"}, {"southeast", "se"}, {"southwest", "sw"},
+        // Secondary units
+        {"suite", "ste"}, {"apartment", "apt"}, {"building", "bldg"}, {"floor", "fl"}, {"room", "rm"},
+        {"unit", "unit"}, {"number", "no"}
+    };
+    for (String[] w : words) WORDS.put(w[0], w[1]);
+
+    String[][] states = {
+        {"alabama", "al"}, {"alaska", "ak"}, {"arizona", "az"}, {"arkansas", "ar"}, {"california", "ca"},
+        {"colorado", "co"}, {"connecticut", "ct"}, {"delaware", "de"}, {"district of columbia", "dc"},
+        {"florida", "fl"}, {"georgia", "ga"}, {"hawaii", "hi"}, {"idaho", "id"}, {"illinois", "il"},
+        {"indiana", "in"}, {"iowa", "ia"}, {"kansas", "ks"}, {"kentucky", "ky"}, {"louisiana", "la"},
+        {"maine", "me"}, {"maryland", "md"}, {"massachusetts", "ma"}, {"michigan", "mi"}, {"minnesota", "mn"},
+        {"mississippi", "ms"}, {"missouri", "mo"}, {"montana", "mt"}, {"nebraska", "ne"}, {"nevada", "nv"},
+        {"new hampshire", "nh"}, {"new jersey", "nj"}, {"new mexico", "nm"}, {"new york", "ny"},
+        {"north carolina", "nc"}, {"north dakota", "nd"}, {"ohio", "oh"}, {"oklahoma", "ok"}, {"oregon", "or"},
+        {"pennsylvania", "pa"}, {"rhode island", "ri"}, {"south carolina", "sc"}, {"south dakota", "sd"},
+        {"tennessee", "tn"}, {"texas", "tx"}, {"utah", "ut"}, {"vermont", "vt"}, {"virginia", "va"},
+        {"washington", "wa"}, {"west virginia", "wv"}, {"wisconsin", "wi"}, {"wyoming", "wy"},
+        {"puerto rico", "pr"}, {"guam", "gu"}
+    };
+    for (String[] s : states) {
+      US_STATES.put(s[0], s[1]);
+      US_STATE_CODES.add(s[1]);
+    }
+  }
+
+  private AddressNormalizer() {
+  }
+
+  public static String normalize(String query) {
+    if (query == null) return "";
+    String text = Normalizer.normalize(query, Normalizer.Form.NFKC);
+
+    List<String> parts = new ArrayList<>();
+    int start = 0;
+    for (int comma = text.indexOf(','); ; comma = text.indexOf(',', start)) {
+      String part = PlaceNames.fold(removeApostrophes(comma < 0 ? text.substring(start) : text.substring(start, comma)));
+      if (!part.isEmpty()) parts.add(part);
+      if (comma < 0) break;
+      start = comma + 1;
+    }
+
+    // Whole parts may be a state or country ("Texas", "United States"), but only where one is written
+    int last = parts.size() - 1;
+    String country = null;
+    String state = null;
+    int statePart = -1;
+    if (last >= 0 && !hasDigit(parts.get(last))) {
+      String asCountry = PlaceNames.countryCode(parts.get(last));
+      String asState = last > 0 ? stateCode(parts.get(last)) : null;
+      if (asCountry != null && asState == null) {
+        country = asCountry;
+        // A state is only read as one in the US ("Perth, WA, Australia" is not Washington)
+        if ("US".equals(country) && last > 1) {
+          state = stateCode(parts.get(last - 1));
+          statePart = last - 1;
+        }
+      } else if (asState != null && asCountry == null) {
+        state = asState;
+        statePart = last;
+      }
+    }
+    StringBuilder key = new StringBuilder(text.length());
+    for (int i = 0; i <= last; i++) {
+      if (key.length() > 0) key.append(' ');
+      if (i == statePart && state != null) key.append("us-").append(state);
+      else if (i == last && country != null) key.append('@').append(country.toLowerCase(Locale.ROOT));
+      else appendWords(key, parts.get(i));
+    }
+    return key.length() > MAX_KEY_LENGTH ? hashed(key) : key.toString();
+  }
+
+  /** Key of a value that is known to be a state (a state column): the full name and its code share one key. */
+  public static String normalizeState(String state) {
+    String code = stateCode(PlaceNames.fold(removeApostrophes(Normalizer.normalize(state == null ? "" : state, Normalizer.Form.NFKC))));
+    return code != null ? "us-" + code : normalize(state);
+  }
+
+  // "texas" or "tx" -> "tx"; null if the folded part is not a US state
+  private static String stateCode(String part) {
+    return US_STATE_CODES.contains(part) ? part : US_STATES.get(part);
+  }
+
+  private static void appendWords(StringBuilder key, String part) {
+    int wordStart = 0;
+    while (wordStart < part.length()) {
+      int space = part.indexOf(' ', wordStart);
+      int wordEnd = space < 0 ? part.length() : space;
+      String word = part.substring(wordStart, wordEnd);
+      if (wordStart > 0) key.append(' ');
+      key.append(WORDS.getOrDefault(word, word));
+      wordStart = wordEnd + 1;
+    }
+  }
+
+  // Readable prefix + SHA-256 of the whole key, together exactly MAX_KEY_LENGTH long
+  private static String hashed(CharSequence key) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.toString().getBytes(StandardCharsets.UTF_8));
+      String hex = HexFormat.of().formatHex(digest);
+      return key.subSequence(0, MAX_KEY_LENGTH - hex.length() - 1) + "#" + hex;
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 not available", e);
+    }
+  }
+
+  private static boolean hasDigit(String s) {
+    for (int i = 0; i < s.length(); i++) {
+      if (Character.isDigit(s.charAt(i))) return true;
+    }
+    return false;
+  }
+
+  // "O'Brien" -> "OBrien" rather than "O Brien"
+  private static String removeApostrophes(String s) {
+    return s.indexOf('\'') < 0 && s.indexOf('’') < 0 ? s : s.replace("'", "").replace("’", "");
+  }
+}
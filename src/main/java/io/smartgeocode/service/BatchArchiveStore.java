@@ -0,0 +1,575 @@
+package io.smartgeocode.service;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import com.opencsv.CSVReader;
+import com.opencsv.exceptions.CsvValidationException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.annotation.PostConstruct;
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * BatchArchiveStore
+ * Compressed CSV of a finished (complete or cancelled) batch in batch_archives, written once; from then
+ * on it is the batch's copy of its output. The sweep deletes the batch_results rows it holds once no
+ * stream that started on them (a download or export begun while the batch ran) is still reading them.
+ * Downloads read it sequentially: a client that accepts the archive's encoding gets the stored bytes as
+ * they are (Content-Encoding passthrough), any other client gets them decompressed on the fly. The codec
+ * is chosen per deployment (batch.archive.codec) and recorded per archive, so changing it never affects
+ * archives already written.
+ * The rows are compressed in blocks of up to BLOCK_ROWS consecutive rows that each decode on their own
+ * (gzip: a full flush, zstd: a new frame), indexed in batch_archive_blocks by first row and by raw and
+ * stored offset, with each block's row count per status in batch_archive_block_statuses. A page of
+ * /batch/{id}/rows or a byte range of the CSV decodes from the block holding it instead of from the start
+ * of the archive; a page filtered by status decodes only the blocks that hold rows with that status.
+ * Older batches that kept their CSV in batches.results are moved in here by the sweep and the column
+ * cleared; their archives have no blocks and are read from the start. Archives written before blocks
+ * existed are rebuilt by the sweep while their rows are still in batch_results.
+ */
+@Service
+public class BatchArchiveStore {
+
+  private static final int SLICE = 256 * 1024;
+  private static final int BLOCK_ROWS = 1000;
+  private static final byte[] HEADER_BYTES = BatchResultStore.CSV_HEADER.getBytes(StandardCharsets.UTF_8);
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @Autowired
+  private TransactionTemplate transactionTemplate;
+
+  @Autowired
+  private BatchResultStore resultStore;
+
+  @Value("${batch.archive.codec:gzip}")
+  private String codec;
+
+  /** Receives rows parsed back from an archive; returns false to stop reading. */
+  public interface RowHandler {
+    boolean accept(BatchResultStore.Row row) throws IOException;
+  }
+
+  /** A stored archive: encoding is gzip, zstd or identity; rawBytes is the CSV size, storedBytes the archive size. */
+  public record Archive(int batchId, String encoding, long rawBytes, long storedBytes) {
+  }
+
+  // rowCount rows from firstRow on, starting at rawOffset of the CSV and decodable from storedOffset of the archive
+  private record Block(int firstRow, int rowCount, long rawOffset, long storedOffset) {
+  }
+
+  // rowCount rows of the block starting at firstRow have this status
+  private record BlockStatus(int firstRow, String status, int rowCount) {
+  }
+
+  @PostConstruct
+  public void initTable() {
+    if (!List.of("gzip", "zstd", "none").contains(codec)) {
+      System.err.println("[ARCHIVE] Unknown batch.archive.codec '" + codec + "', using gzip.");
+      codec = "gzip";
+    }
+    try {
+      jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS batch_archives (" +
+          "batch_id INTEGER PRIMARY KEY, " +
+          "encoding VARCHAR(10) NOT NULL, " +
+          "raw_bytes BIGINT NOT NULL, " +
+          "stored_bytes BIGINT NOT NULL, " +
+          "data BYTEA NOT NULL, " +
+          "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)");
+      // Already compressed: skip TOAST compression, which also lets substring() read just the slice it needs
+      jdbcTemplate.execute("ALTER TABLE batch_archives ALTER COLUMN data SET STORAGE EXTERNAL");
+      jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS batch_archive_blocks (" +
+          "batch_id INTEGER NOT NULL, " +
+          "first_row INTEGER NOT NULL, " +
+          "row_count INTEGER NOT NULL, " +
+          "raw_offset BIGINT NOT NULL, " +
+          "stored_offset BIGINT NOT NULL, " +
+          "PRIMARY KEY (batch_id, first_row))");
+      jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS batch_archive_block_statuses (" +
+          "batch_id INTEGER NOT NULL, " +
+          "status VARCHAR(20) NOT NULL, " +
+          "first_row INTEGER NOT NULL, " +
+          "row_count INTEGER NOT NULL, " +
+          "PRIMARY KEY (batch_id, status, first_row))");
+      System.out.println("Batch Archive Store Ready (" + codec + ").");
+    } catch (Exception e) {
+      System.err.println("Batch Archive Store Init Failed: " + e.getMessage());
+    }
+  }
+
+  public Archive find(int batchId) {
+    List<Archive> found = jdbcTemplate.query(
+        "SELECT batch_id, encoding, raw_bytes, stored_bytes FROM batch_archives WHERE batch_id = ?",
+        (rs, i) -> new Archive(rs.getInt("batch_id"), rs.getString("encoding"), rs.getLong("raw_bytes"), rs.getLong("stored_bytes")),
+        batchId);
+    return found.isEmpty() ? null : found.get(0);
+  }
+
+  /**
+   * Compresses the batch's CSV into its archive, with its block index and per-block status counts, in one
+   * transaction; the batch_results rows are left for purgeArchivedRows. The CSV is streamed through the
+   * encoder into a temp file and from there into the table, so memory stays flat however large the batch is.
+   * Idempotent: an existing archive is kept, unless it predates block indexes and the rows are still there.
+   */
+  public void archive(int batchId) throws IOException {
+    Archive existing = find(batchId);
+    boolean rows = resultStore.hasRows(batchId);
+    if (existing != null && !(rows && blocks(batchId).isEmpty())) return;
+    BatchResultStore.CsvSource legacy = rows ? null : resultStore.csvSource(batchId);
+    String encoding = "none".equals(codec) ? "identity" : codec;
+    Path tmp = Files.createTempFile("batch-" + batchId + "-", ".csv." + encoding);
+    try {
+      List<Block> blocks = new ArrayList<>();
+      List<BlockStatus> statuses = new ArrayList<>();
+      long raw;
+      try (BlockEncoder out = new BlockEncoder(encoding, new BufferedOutputStream(Files.newOutputStream(tmp), BatchResultStore.STREAM_BUFFER))) {
+        if (rows) writeBlocks(batchId, out, blocks, statuses);
+        else resultStore.writeCsv(legacy, out, 0, Long.MAX_VALUE);
+        raw = out.raw;
+      }
+      long stored = Files.size(tmp);
+      try (InputStream data = Files.newInputStream(tmp)) {
+        transactionTemplate.executeWithoutResult(tx -> {
+          // An archive from before block indexes is replaced; one rebuilt meanwhile by another node is kept
+          if (existing != null) {
+            jdbcTemplate.update("DELETE FROM batch_archives a WHERE batch_id = ? " +
+                "AND NOT EXISTS (SELECT 1 FROM batch_archive_blocks b WHERE b.batch_id = a.batch_id)", batchId);
+          }
+          int inserted = jdbcTemplate.update(
+              "INSERT INTO batch_archives (batch_id, encoding, raw_bytes, stored_bytes, data) VALUES (?, ?, ?, ?, ?) ON CONFLICT (batch_id) DO NOTHING",
+              ps -> {
+                ps.setInt(1, batchId);
+                ps.setString(2, encoding);
+                ps.setLong(3, raw);
+                ps.setLong(4, stored);
+                ps.setBinaryStream(5, data, stored);
+              });
+          if (inserted == 0) return;
+          jdbcTemplate.batchUpdate(
+              "INSERT INTO batch_archive_blocks (batch_id, first_row, row_count, raw_offset, stored_offset) VALUES (?, ?, ?, ?, ?)",
+              blocks, 1000, (ps, block) -> {
+                ps.setInt(1, batchId);
+                ps.setInt(2, block.firstRow());
+                ps.setInt(3, block.rowCount());
+                ps.setLong(4, block.rawOffset());
+                ps.setLong(5, block.storedOffset());
+              });
+          jdbcTemplate.batchUpdate(
+              "INSERT INTO batch_archive_block_statuses (batch_id, status, first_row, row_count) VALUES (?, ?, ?, ?)",
+              statuses, 1000, (ps, count) -> {
+                ps.setInt(1, batchId);
+                ps.setString(2, count.status());
+                ps.setInt(3, count.firstRow());
+                ps.setInt(4, count.rowCount());
+              });
+          // Legacy text has no readers that stream it row by row: the archive replaces it at once
+          if (!rows && legacy.legacy()) jdbcTemplate.update("UPDATE batches SET results = NULL WHERE id = ?", batchId);
+        });
+      }
+      System.out.println("Batch #" + batchId + " archived (" + encoding + ", " + blocks.size() + " blocks): " + raw + " -> " + stored + " bytes");
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  /**
+   * Archives finished batches that have none yet (missed at completion, cancelled, or legacy results text),
+   * and rebuilds archives without block index whose rows are still in batch_results.
+   */
+  public void archivePending() {
+    List<Integer> pending = jdbcTemplate.queryForList(
+        "SELECT b.id FROM batches b WHERE b.status IN ('complete', 'cancelled') " +
+        "AND (NOT EXISTS (SELECT 1 FROM batch_archives a WHERE a.batch_id = b.id) " +
+        "OR (NOT EXISTS (SELECT 1 FROM batch_archive_blocks k WHERE k.batch_id = b.id) " +
+        "AND EXISTS (SELECT 1 FROM batch_results r WHERE r.batch_id = b.id))) ORDER BY b.id LIMIT 50",
+        Integer.class);
+    for (Integer batchId : pending) {
+      try {
+        archive(batchId);
+      } catch (Exception e) {
+        System.err.println("[ARCHIVE] Batch #" + batchId + " could not be archived: " + e.getMessage());
+      }
+    }
+    purgeArchivedRows();
+  }
+
+  /**
+   * Deletes the batch_results rows of archived batches (those the block index covers) once no reader
+   * registered with BatchResultStore.openReader holds them, so a download or export that started while the
+   * batch ran reads to the end. Readers that lapsed are cleared first.
+   */
+  public void purgeArchivedRows() {
+    jdbcTemplate.update("DELETE FROM batch_result_readers WHERE expires_at < CURRENT_TIMESTAMP");
+    List<Integer> archived = jdbcTemplate.queryForList(
+        "SELECT a.batch_id FROM batch_archives a " +
+        "WHERE EXISTS (SELECT 1 FROM batch_archive_blocks k WHERE k.batch_id = a.batch_id) " +
+        "AND EXISTS (SELECT 1 FROM batch_results r WHERE r.batch_id = a.batch_id) ORDER BY a.batch_id LIMIT 50",
+        Integer.class);
+    for (Integer batchId : archived) {
+      // Checked in the same statement, so a reader registered meanwhile keeps the rows until the next sweep
+      int deleted = jdbcTemplate.update(
+          "DELETE FROM batch_results WHERE batch_id = ? " +
+          "AND row_index <= (SELECT MAX(first_row + row_count - 1) FROM batch_archive_blocks WHERE batch_id = ?) " +
+          "AND NOT EXISTS (SELECT 1 FROM batch_result_readers x WHERE x.batch_id = ? AND x.expires_at >= CURRENT_TIMESTAMP)",
+          batchId, batchId, batchId);
+      if (deleted > 0) System.out.println("Batch #" + batchId + " rows purged (" + deleted + "), archive only from now on");
+    }
+  }
+
+  /** Streams bytes from..to (inclusive) of the archive as stored, for clients that accept its encoding. */
+  public void writeStored(Archive archive, OutputStream out, long from, long to) throws IOException {
+    copy(storedStream(archive, from), new RangeOutputStream(out, 0, to - from));
+  }
+
+  /** Streams bytes from..to (inclusive) of the decompressed CSV, decoding from the block that holds `from`. */
+  public void writeDecoded(Archive archive, OutputStream out, long from, long to) throws IOException {
+    Block start = null;
+    for (Block block : blocks(archive.batchId())) {
+      if (block.rawOffset() > from) break;
+      start = block;
+    }
+    if (start == null) {
+      try (InputStream in = open(archive)) {
+        copy(in, new RangeOutputStream(out, from, to));
+      }
+      return;
+    }
+    try (InputStream in = openBlock(archive, start.storedOffset())) {
+      copy(in, new RangeOutputStream(out, from - start.rawOffset(), to - start.rawOffset()));
+    }
+  }
+
+  /** The decompressed CSV, read from the table slice by slice. */
+  public InputStream open(Archive archive) throws IOException {
+    return decoder(archive.encoding(), storedStream(archive, 0));
+  }
+
+  /**
+   * Rows after `afterRow` in row order, parsed back from the batch's archive; the handler returns false
+   * to stop. Decoding starts at the block holding the first such row. A finished batch without an archive
+   * (or with one from before block indexes) is archived first.
+   */
+  public void readRows(int batchId, int afterRow, RowHandler handler) throws IOException {
+    readRows(batchId, afterRow, null, handler);
+  }
+
+  /** As readRows, only rows with `status` (all rows when null); only blocks holding such rows are decoded. */
+  public void readRows(int batchId, int afterRow, String status, RowHandler handler) throws IOException {
+    Archive archive = find(batchId);
+    List<Block> blocks = archive != null ? blocks(batchId) : List.of();
+    if (archive == null || (blocks.isEmpty() && resultStore.hasRows(batchId))) {
+      archive(batchId);
+      archive = find(batchId);
+      if (archive == null) return;
+      blocks = blocks(batchId);
+    }
+    RowHandler matching = status == null ? handler : row -> !status.equals(row.status()) || handler.accept(row);
+    try {
+      if (blocks.isEmpty()) readUnindexed(archive, afterRow, matching);
+      else if (status != null && hasStatusCounts(batchId)) readMatchingBlocks(archive, afterRow, status, matching);
+      else readBlocks(archive, blocks, afterRow, matching);
+    } catch (CsvValidationException e) {
+      throw new IOException("Archived CSV of batch #" + batchId + " is not readable", e);
+    }
+  }
+
+  // Rows in batch_results order, cut into blocks of consecutive rows (a gap in row_index starts a new block),
+  // counting each block's rows per status
+  private void writeBlocks(int batchId, BlockEncoder out, List<Block> blocks, List<BlockStatus> statuses) throws IOException {
+    out.write(HEADER_BYTES);
+    StringBuilder line = new StringBuilder(256);
+    int afterRow = 0;
+    int firstRow = 0;
+    int rowCount = 0;
+    long rawOffset = 0;
+    long storedOffset = 0;
+    Map<String, Integer> counts = new TreeMap<>();
+    List<BatchResultStore.Row> page;
+    do {
+      page = resultStore.page(batchId, afterRow);
+      for (BatchResultStore.Row row : page) {
+        if (rowCount == 0 || rowCount == BLOCK_ROWS || row.rowIndex() != afterRow + 1) {
+          if (rowCount > 0) closeBlock(new Block(firstRow, rowCount, rawOffset, storedOffset), counts, blocks, statuses);
+          out.cut();
+          firstRow = row.rowIndex();
+          rowCount = 0;
+          rawOffset = out.raw;
+          storedOffset = out.stored;
+        }
+        line.setLength(0);
+        BatchResultStore.appendCsvFields(line, row);
+        out.write(line.toString().getBytes(StandardCharsets.UTF_8));
+        counts.merge(row.status(), 1, Integer::sum);
+        rowCount++;
+        afterRow = row.rowIndex();
+      }
+    } while (page.size() == BatchResultStore.STREAM_PAGE);
+    if (rowCount > 0) closeBlock(new Block(firstRow, rowCount, rawOffset, storedOffset), counts, blocks, statuses);
+  }
+
+  private static void closeBlock(Block block, Map<String, Integer> counts, List<Block> blocks, List<BlockStatus> statuses) {
+    blocks.add(block);
+    counts.forEach((status, count) -> statuses.add(new BlockStatus(block.firstRow(), status, count)));
+    counts.clear();
+  }
+
+  private void readBlocks(Archive archive, List<Block> blocks, int afterRow, RowHandler handler) throws IOException, CsvValidationException {
+    // The block holding the first row after afterRow; a row in a gap between blocks starts at the next one
+    int start = 0;
+    for (int i = 0; i < blocks.size() && blocks.get(i).firstRow() <= afterRow + 1; i++) start = i;
+    Block first = blocks.get(start);
+    if (first.firstRow() + first.rowCount() <= afterRow + 1) start++;
+    if (start == blocks.size()) return;
+
+    try (CSVReader reader = new CSVReader(new InputStreamReader(openBlock(archive, blocks.get(start).storedOffset()), StandardCharsets.UTF_8))) {
+      for (Block block : blocks.subList(start, blocks.size())) {
+        for (int i = 0; i < block.rowCount(); i++) {
+          String[] cols = reader.readNext();
+          if (cols == null) return;
+          int rowIndex = block.firstRow() + i;
+          if (rowIndex <= afterRow || cols.length < 5) continue;
+          if (!handler.accept(toRow(rowIndex, cols))) return;
+        }
+      }
+    }
+  }
+
+  // Each block that holds rows with `status` after afterRow, decoded on its own (blocks in between are never read)
+  private void readMatchingBlocks(Archive archive, int afterRow, String status, RowHandler handler) throws IOException, CsvValidationException {
+    List<Block> matching = jdbcTemplate.query(
+        "SELECT k.first_row, k.row_count, k.raw_offset, k.stored_offset FROM batch_archive_block_statuses s " +
+        "JOIN batch_archive_blocks k ON k.batch_id = s.batch_id AND k.first_row = s.first_row " +
+        "WHERE s.batch_id = ? AND s.status = ? AND s.first_row + k.row_count > ? ORDER BY s.first_row",
+        (rs, i) -> new Block(rs.getInt("first_row"), rs.getInt("row_count"), rs.getLong("raw_offset"), rs.getLong("stored_offset")),
+        archive.batchId(), status, afterRow + 1);
+    for (Block block : matching) {
+      try (CSVReader reader = new CSVReader(new InputStreamReader(openBlock(archive, block.storedOffset()), StandardCharsets.UTF_8))) {
+        for (int i = 0; i < block.rowCount(); i++) {
+          String[] cols = reader.readNext();
+          if (cols == null) break;
+          int rowIndex = block.firstRow() + i;
+          if (rowIndex <= afterRow || cols.length < 5) continue;
+          if (!handler.accept(toRow(rowIndex, cols))) return;
+        }
+      }
+    }
+  }
+
+  // Archives written before per-block status counts are filtered while every block is read
+  private boolean hasStatusCounts(int batchId) {
+    return !jdbcTemplate.queryForList("SELECT 1 FROM batch_archive_block_statuses WHERE batch_id = ? LIMIT 1", Integer.class, batchId).isEmpty();
+  }
+
+  // Archives without a block index (legacy results text): read from the start, rowIndex = data line number
+  private void readUnindexed(Archive archive, int afterRow, RowHandler handler) throws IOException, CsvValidationException {
+    try (CSVReader reader = new CSVReader(new InputStreamReader(open(archive), StandardCharsets.UTF_8))) {
+      reader.skip(1);
+      String[] cols;
+      int rowIndex = 0;
+      while ((cols = reader.readNext()) != null) {
+        rowIndex++;
+        if (rowIndex <= afterRow || cols.length < 5) continue;
+        if (!handler.accept(toRow(rowIndex, cols))) return;
+      }
+    }
+  }
+
+  private static BatchResultStore.Row toRow(int rowIndex, String[] cols) {
+    return new BatchResultStore.Row(rowIndex, cols[0], cols[1], cols[2], cols[3], cols[4], cols.length > 5 ? cols[5] : "");
+  }
+
+  private List<Block> blocks(int batchId) {
+    return jdbcTemplate.query(
+        "SELECT first_row, row_count, raw_offset, stored_offset FROM batch_archive_blocks WHERE batch_id = ? ORDER BY first_row",
+        (rs, i) -> new Block(rs.getInt("first_row"), rs.getInt("row_count"), rs.getLong("raw_offset"), rs.getLong("stored_offset")),
+        batchId);
+  }
+
+  private static void copy(InputStream in, RangeOutputStream out) throws IOException {
+    byte[] buffer = new byte[BatchResultStore.STREAM_BUFFER];
+    int n;
+    while (!out.done() && (n = in.read(buffer)) > 0) out.write(buffer, 0, n);
+    out.flush();
+  }
+
+  // The stored bytes from `from` on, fetched one slice at a time as they are read (no connection held in between)
+  private InputStream storedStream(Archive archive, long from) {
+    return new InputStream() {
+      private byte[] slice = new byte[0];
+      private int pos;
+      private long next = from;
+
+      @Override
+      public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) {
+        if (len == 0) return 0;
+        if (pos == slice.length) {
+          if (next >= archive.storedBytes()) return -1;
+          slice = jdbcTemplate.queryForObject(
+              "SELECT substring(data FROM CAST(? AS INTEGER) FOR ?) FROM batch_archives WHERE batch_id = ?",
+              byte[].class, next + 1, SLICE, archive.batchId());
+          if (slice == null || slice.length == 0) return -1;
+          next += slice.length;
+          pos = 0;
+        }
+        int n = Math.min(len, slice.length - pos);
+        System.arraycopy(slice, pos, b, off, n);
+        pos += n;
+        return n;
+      }
+    };
+  }
+
+  // The decompressed CSV from the start of a block on (to the end of the archive)
+  private InputStream openBlock(Archive archive, long storedOffset) throws IOException {
+    InputStream in = storedStream(archive, storedOffset);
+    return switch (archive.encoding()) {
+      // A block starts on a full flush: raw deflate data with no reference to anything before it
+      case "gzip" -> new InflaterInputStream(in, new Inflater(true), BatchResultStore.STREAM_BUFFER) {
+        @Override
+        public void close() throws IOException {
+          super.close();
+          inf.end();
+        }
+      };
+      case "zstd" -> new ZstdInputStream(in);
+      default -> in;
+    };
+  }
+
+  private static InputStream decoder(String encoding, InputStream in) throws IOException {
+    return switch (encoding) {
+      case "gzip" -> new GZIPInputStream(in, BatchResultStore.STREAM_BUFFER);
+      case "zstd" -> new ZstdInputStream(in);
+      default -> in;
+    };
+  }
+
+  /**
+   * Encoder that counts the CSV bytes written and the archive bytes produced, and can cut: whatever is
+   * written after cut() decodes without anything before it. The whole output is still one valid stream
+   * of its encoding (gzip: full flushes inside one member, zstd: one frame per block).
+   */
+  private static final class BlockEncoder extends OutputStream {
+    private final String encoding;
+    private final CountingOutputStream sink;
+    private OutputStream out;
+    long raw;
+    long stored;
+
+    BlockEncoder(String encoding, OutputStream file) throws IOException {
+      this.encoding = encoding;
+      this.sink = new CountingOutputStream(file);
+      this.out = switch (encoding) {
+        case "gzip" -> new FullFlushGzip(sink);
+        case "zstd" -> new ZstdOutputStream(sink.unclosable());
+        default -> sink;
+      };
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      raw++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      raw += len;
+    }
+
+    void cut() throws IOException {
+      switch (encoding) {
+        case "gzip" -> ((FullFlushGzip) out).fullFlush();
+        case "zstd" -> {
+          out.close();
+          out = new ZstdOutputStream(sink.unclosable());
+        }
+        default -> {
+        }
+      }
+      stored = sink.count;
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.close();
+      sink.close();
+    }
+  }
+
+  // Deflate FULL_FLUSH: ends the current block byte-aligned and resets the dictionary
+  private static final class FullFlushGzip extends GZIPOutputStream {
+    FullFlushGzip(OutputStream out) throws IOException {
+      super(out, BatchResultStore.STREAM_BUFFER);
+    }
+
+    void fullFlush() throws IOException {
+      int n;
+      while ((n = def.deflate(buf, 0, buf.length, Deflater.FULL_FLUSH)) > 0) out.write(buf, 0, n);
+    }
+  }
+
+  private static final class CountingOutputStream extends FilterOutputStream {
+    long count;
+
+    CountingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
+    }
+
+    // For encoders that are closed per block while the file stays open
+    OutputStream unclosable() {
+      return new FilterOutputStream(this) {
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+          flush();
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,131 @@
+package io.smartgeocode.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * BatchExporter
+ * GeoJSON and NDJSON exports of batch output, for GIS tooling that should not have to re-parse the CSV.
+ * Rows are written one by one through a Jackson generator, so nothing is materialized beyond one page:
+ * a running batch is read in keyset pages from batch_results, a finished one is parsed back from its
+ * CSV archive.
+ * geojson: one FeatureCollection, a Point feature per row (null geometry when the row has no coordinates).
+ * ndjson: one flat JSON object per row and line.
+ */
+@Service
+public class BatchExporter {
+
+  public static final List<String> FORMATS = List.of("geojson", "ndjson");
+
+  private static final Pattern JSON_NUMBER = Pattern.compile("-?\\d+(\\.\\d+)?([eE][+-]?\\d+)?");
+
+  @Autowired
+  private BatchResultStore resultStore;
+
+  @Autowired
+  private BatchArchiveStore archiveStore;
+
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  public String contentType(String format) {
+    return "geojson".equals(format) ? "application/geo+json" : "application/x-ndjson";
+  }
+
+  /** Streams the batch in `format`; finished says whether the batch is complete/cancelled (read from its archive). */
+  public void write(int batchId, String format, boolean finished, OutputStream out) throws IOException {
+    boolean geojson = "geojson".equals(format);
+    JsonGenerator json = objectMapper.getFactory().createGenerator(new BufferedOutputStream(out, BatchResultStore.STREAM_BUFFER));
+    json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    if (geojson) {
+      json.writeStartObject();
+      json.writeStringField("type", "FeatureCollection");
+      json.writeArrayFieldStart("features");
+    } else {
+      json.setRootValueSeparator(null);
+    }
+
+    if (finished) {
+      archiveStore.readRows(batchId, 0, row -> {
+        writeRow(json, row, geojson);
+        return true;
+      });
+    } else {
+      // Held open so the rows are not purged under this export if the batch finishes meanwhile
+      try (BatchResultStore.Reader reader = resultStore.openReader(batchId)) {
+        List<BatchResultStore.Row> page = resultStore.page(batchId, 0);
+        while (true) {
+          for (BatchResultStore.Row row : page) writeRow(json, row, geojson);
+          if (page.size() < BatchResultStore.STREAM_PAGE) break;
+          reader.renew();
+          page = resultStore.page(batchId, page.get(page.size() - 1).rowIndex());
+        }
+      }
+    }
+
+    if (geojson) {
+      json.writeEndArray();
+      json.writeEndObject();
+    }
+    json.close();
+  }
+
+  private static void writeRow(JsonGenerator json, BatchResultStore.Row row, boolean geojson) throws IOException {
+    boolean located = isNumber(row.lat()) && isNumber(row.lng());
+    if (geojson) {
+      json.writeStartObject();
+      json.writeStringField("type", "Feature");
+      if (located) {
+        json.writeObjectFieldStart("geometry");
+        json.writeStringField("type", "Point");
+        // GeoJSON order is [longitude, latitude]; the stored text is written as-is to keep its precision
+        json.writeArrayFieldStart("coordinates");
+        json.writeNumber(row.lng());
+        json.writeNumber(row.lat());
+        json.writeEndArray();
+        json.writeEndObject();
+      } else {
+        json.writeNullField("geometry");
+      }
+      json.writeObjectFieldStart("properties");
+      writeProperties(json, row);
+      json.writeEndObject();
+      json.writeEndObject();
+    } else {
+      json.writeStartObject();
+      writeProperties(json, row);
+      if (located) {
+        json.writeFieldName("lat");
+        json.writeNumber(row.lat());
+        json.writeFieldName("lng");
+        json.writeNumber(row.lng());
+      } else {
+        json.writeNullField("lat");
+        json.writeNullField("lng");
+      }
+      json.writeEndObject();
+      json.writeRaw('\n');
+    }
+  }
+
+  private static void writeProperties(JsonGenerator json, BatchResultStore.Row row) throws IOException {
+    json.writeNumberField("row", row.rowIndex());
+    json.writeStringField("input_address", row.inputAddress());
+    json.writeStringField("formatted_address", row.formattedAddress());
+    json.writeStringField("status", row.status());
+    json.writeStringField("match_type", row.matchType());
+  }
+
+  // Only plain JSON numbers are written raw; anything else (empty, "N/A") means no coordinates
+  private static boolean isNumber(String value) {
+    return value != null && JSON_NUMBER.matcher(value).matches();
+  }
+}
@@ -0,0 +1,515 @@
+package io.smartgeocode.service;
+
+import com.opencsv.exceptions.CsvValidationException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * BatchJobQueue
+ * Durable batch queue in Postgres. An upload is stored as one batch_jobs row plus its parsed CSV
+ * lines in batch_input_rows (row 0 is the header), streamed from the spilled upload in the same
+ * transaction as the batches row, so a redeploy never loses a batch.
+ * The rows are split into fixed-size batch_chunks, and the chunk is the unit of work: any node claims
+ * chunks with FOR UPDATE SKIP LOCKED and holds a lease on each that it renews while processing; a chunk
+ * whose lease expires (crashed or killed node) is claimed again by whichever node polls next, so one
+ * batch runs on several nodes at once. A chunk's checkpoint_row (rows whose output is committed in
+ * batch_results, written in the same transaction) lets the next owner resume inside the chunk, and
+ * the node that completes the last chunk finalizes the batch.
+ * Owners cancel or pause a batch through requested_action: no new chunks are handed out, and the
+ * nodes holding its chunks poll the request and stop them between rows. A paused job keeps its input
+ * and chunk checkpoints until it is resumed.
+ * worker_nodes holds a heartbeat per node so each node can take its share of the provider rate.
+ */
+@Service
+@DependsOn("batchResultStore") // initTables migrates old jobs against batch_results
+public class BatchJobQueue {
+
+  private static final int INSERT_CHUNK = 1000;
+  private static final int READ_PAGE = 500;
+
+  @Autowired
+  private DataSource dataSource;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @Value("${batch.queue.lease-seconds:120}")
+  private int leaseSeconds;
+
+  @Value("${batch.queue.max-attempts:3}")
+  private int maxAttempts;
+
+  @Value("${batch.queue.max-running-per-user:4}")
+  private int maxRunningPerUser;
+
+  @Value("${batch.queue.chunk-rows:1000}")
+  private int chunkRows;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  /**
+   * A chunk claimed by this node: data rows firstRow..lastRow of a batch, of which everything up to
+   * checkpointRow is already committed by an earlier owner.
+   */
+  public record ClaimedChunk(int batchId, int chunkIndex, int firstRow, int lastRow, int checkpointRow,
+                             Long userId, String email, int attempts) {
+  }
+
+  @PostConstruct
+  public void initTables() {
+    try {
+      // status: queued -> running -> done | failed | cancelled | paused (paused goes back to queued on resume).
+      // lease_owner / lease_expires_at / attempts / checkpoint_row date from leasing whole jobs; chunks carry them now
+      jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS batch_jobs (" +
+          "batch_id INTEGER PRIMARY KEY, " +
+          "user_id INTEGER NOT NULL, " +
+          "email VARCHAR(255), " +
+          "status VARCHAR(20) NOT NULL DEFAULT 'queued', " +
+          "attempts INTEGER NOT NULL DEFAULT 0, " +
+          "lease_owner VARCHAR(255), " +
+          "lease_expires_at TIMESTAMP, " +
+          "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+          "updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)");
+      jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_batch_jobs_claim ON batch_jobs (status, created_at)");
+      jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS batch_input_rows (" +
+          "batch_id INTEGER NOT NULL, " +
+          "row_index INTEGER NOT NULL, " +
+          "line TEXT[] NOT NULL, " +
+          "PRIMARY KEY (batch_id, row_index))");
+      jdbcTemplate.execute("ALTER TABLE batch_jobs ADD COLUMN IF NOT EXISTS checkpoint_row INTEGER NOT NULL DEFAULT 0");
+      jdbcTemplate.execute("ALTER TABLE batch_jobs ADD COLUMN IF NOT EXISTS requested_action VARCHAR(10)");
+      // chunk status: queued -> running -> done | skipped (limit reached) | cancelled | failed; running with an expired lease is claimable again
+      jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS batch_chunks (" +
+          "batch_id INTEGER NOT NULL, " +
+          "chunk_index INTEGER NOT NULL, " +
+          "first_row INTEGER NOT NULL, " +
+          "last_row INTEGER NOT NULL, " +
+          "checkpoint_row INTEGER NOT NULL, " +
+          "status VARCHAR(20) NOT NULL DEFAULT 'queued', " +
+          "attempts INTEGER NOT NULL DEFAULT 0, " +
+          "lease_owner VARCHAR(255), " +
+          "lease_expires_at TIMESTAMP, " +
+          "PRIMARY KEY (batch_id, chunk_index))");
+      jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_batch_chunks_claim ON batch_chunks (status, lease_expires_at)");
+      jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS worker_nodes (" +
+          "node_id VARCHAR(255) PRIMARY KEY, " +
+          "started_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+          "heartbeat_at TIMESTAMP NOT NULL)");
+      // Jobs queued before chunking become a single chunk that resumes from the job's checkpoint
+      // (never past the stored output: a checkpoint from before row-level results has none to resume from)
+      jdbcTemplate.update(
+          "INSERT INTO batch_chunks (batch_id, chunk_index, first_row, last_row, checkpoint_row) " +
+          "SELECT j.batch_id, 0, 1, COALESCE((SELECT MAX(i.row_index) FROM batch_input_rows i WHERE i.batch_id = j.batch_id), 0), " +
+          "LEAST(j.checkpoint_row, COALESCE((SELECT MAX(r.row_index) FROM batch_results r WHERE r.batch_id = j.batch_id), 0)) " +
+          "FROM batch_jobs j WHERE j.status IN ('queued', 'running', 'paused') " +
+          "AND NOT EXISTS (SELECT 1 FROM batch_chunks c WHERE c.batch_id = j.batch_id)");
+      Gauge.builder("batch.queue.depth", this, q -> q.countJobs("queued"))
+          .description("Batch jobs waiting for a worker")
+          .register(meterRegistry);
+      Gauge.builder("batch.queue.running", this, q -> q.countJobs("running"))
+          .description("Batch jobs with work in progress")
+          .register(meterRegistry);
+      Gauge.builder("batch.queue.chunks.running", this, q -> q.countRunningChunks())
+          .description("Batch chunks currently leased by a worker on any node")
+          .register(meterRegistry);
+      System.out.println("Batch Job Queue Ready (chunks of " + chunkRows + " rows, lease " + leaseSeconds + "s, max attempts " + maxAttempts + ").");
+    } catch (Exception e) {
+      System.err.println("Batch Job Queue Init Failed: " + e.getMessage());
+    }
+  }
+
+  // =========================================================================================
+  // PRODUCER: UPLOAD -> BATCH + INPUT ROWS + JOB + CHUNKS (one transaction)
+  // =========================================================================================
+  public int submit(Long userId, String email, Path csv, int rowCount) throws SQLException, IOException, CsvValidationException {
+    try (Connection conn = dataSource.getConnection()) {
+      conn.setAutoCommit(false);
+      try {
+        int batchId;
+        try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO batches (user_id, status, total_rows, processed_rows) VALUES (?, 'processing', ?, 0)", Statement.RETURN_GENERATED_KEYS)) {
+          stmt.setLong(1, userId);
+          stmt.setInt(2, rowCount);
+          stmt.executeUpdate();
+          ResultSet keys = stmt.getGeneratedKeys();
+          keys.next();
+          batchId = keys.getInt(1);
+        }
+
+        // Second streaming pass over the spilled file, flushed in chunks
+        int[] index = {0};
+        try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO batch_input_rows (batch_id, row_index, line) VALUES (?, ?, ?)")) {
+          CsvUpload.forEachRow(csv, line -> {
+            stmt.setInt(1, batchId);
+            stmt.setInt(2, index[0]);
+            stmt.setArray(3, conn.createArrayOf("text", line));
+            stmt.addBatch();
+            if (++index[0] % INSERT_CHUNK == 0) stmt.executeBatch();
+          });
+          stmt.executeBatch();
+        }
+
+        try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO batch_jobs (batch_id, user_id, email) VALUES (?, ?, ?)")) {
+          stmt.setInt(1, batchId);
+          stmt.setLong(2, userId);
+          stmt.setString(3, email);
+          stmt.executeUpdate();
+        }
+
+        // Data rows are 1..lines-1; an upload without data rows still gets one (empty) chunk so it completes
+        int dataRows = Math.max(0, index[0] - 1);
+        try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO batch_chunks (batch_id, chunk_index, first_row, last_row, checkpoint_row) VALUES (?, ?, ?, ?, ?)")) {
+          int chunkIndex = 0;
+          for (int first = 1; chunkIndex == 0 || first <= dataRows; first += chunkRows) {
+            stmt.setInt(1, batchId);
+            stmt.setInt(2, chunkIndex++);
+            stmt.setInt(3, first);
+            stmt.setInt(4, Math.min(dataRows, first + chunkRows - 1));
+            stmt.setInt(5, first - 1);
+            stmt.addBatch();
+          }
+          stmt.executeBatch();
+        }
+
+        conn.commit();
+        return batchId;
+      } catch (SQLException | IOException | CsvValidationException | RuntimeException e) {
+        conn.rollback();
+        throw e;
+      }
+    }
+  }
+
+  // =========================================================================================
+  // CONSUMER: CLAIM / LEASE / FINISH (per chunk)
+  // =========================================================================================
+
+  /**
+   * Claims the next runnable chunk for this node, or returns null if there is none.
+   * Premium owners first, then oldest batch first, chunks in order; an owner already running
+   * max-running-per-user chunks (all nodes together) is skipped so one customer's uploads cannot
+   * occupy every worker. (The cap is soft: two nodes claiming at the same instant may briefly exceed it by one.)
+   */
+  public ClaimedChunk claim(String nodeId) {
+    List<ClaimedChunk> claimed = jdbcTemplate.query(
+        "WITH c AS (UPDATE batch_chunks SET status = 'running', lease_owner = ?, " +
+        "lease_expires_at = CURRENT_TIMESTAMP + make_interval(secs => ?), attempts = attempts + 1 " +
+        "WHERE (batch_id, chunk_index) = (SELECT k.batch_id, k.chunk_index FROM batch_chunks k " +
+        "JOIN batch_jobs j ON j.batch_id = k.batch_id LEFT JOIN users u ON u.id = j.user_id " +
+        "WHERE j.status IN ('queued', 'running') AND j.requested_action IS NULL " +
+        "AND (k.status = 'queued' OR (k.status = 'running' AND k.lease_expires_at < CURRENT_TIMESTAMP)) " +
+        "AND (SELECT COUNT(*) FROM batch_chunks r JOIN batch_jobs rj ON rj.batch_id = r.batch_id " +
+        "WHERE rj.user_id = j.user_id AND r.status = 'running' AND r.lease_expires_at >= CURRENT_TIMESTAMP) < ? " +
+        "ORDER BY (u.subscription_status = 'premium') DESC NULLS LAST, j.created_at, k.chunk_index " +
+        "FOR UPDATE OF k SKIP LOCKED LIMIT 1) " +
+        "RETURNING batch_id, chunk_index, first_row, last_row, checkpoint_row, attempts) " +
+        "SELECT c.*, j.user_id, j.email FROM c JOIN batch_jobs j ON j.batch_id = c.batch_id",
+        (rs, i) -> new ClaimedChunk(rs.getInt("batch_id"), rs.getInt("chunk_index"), rs.getInt("first_row"), rs.getInt("last_row"),
+            rs.getInt("checkpoint_row"), rs.getLong("user_id"), rs.getString("email"), rs.getInt("attempts")),
+        nodeId, leaseSeconds, maxRunningPerUser);
+    if (claimed.isEmpty()) return null;
+    ClaimedChunk chunk = claimed.get(0);
+    jdbcTemplate.update("UPDATE batch_jobs SET status = 'running', updated_at = CURRENT_TIMESTAMP WHERE batch_id = ? AND status = 'queued'", chunk.batchId());
+    return chunk;
+  }
+
+  /** Extends the lease; false means another node has taken the chunk over. */
+  public boolean renewLease(ClaimedChunk chunk, String nodeId) {
+    return jdbcTemplate.update(
+        "UPDATE batch_chunks SET lease_expires_at = CURRENT_TIMESTAMP + make_interval(secs => ?) " +
+        "WHERE batch_id = ? AND chunk_index = ? AND lease_owner = ? AND status = 'running'",
+        leaseSeconds, chunk.batchId(), chunk.chunkIndex(), nodeId) > 0;
+  }
+
+  /**
+   * Chunk done. Returns true for exactly one caller per batch: the one whose chunk was the last
+   * outstanding, which finalizes the batch (its input rows are deleted here).
+   */
+  public boolean completeChunk(ClaimedChunk chunk, String nodeId) {
+    int updated = jdbcTemplate.update(
+        "UPDATE batch_chunks SET status = 'done', lease_owner = NULL, lease_expires_at = NULL " +
+        "WHERE batch_id = ? AND chunk_index = ? AND lease_owner = ? AND status = 'running'",
+        chunk.batchId(), chunk.chunkIndex(), nodeId);
+    if (updated == 0) return false;
+    // Every chunk is marked (and committed) before this check, so the last one to get here sees all of them
+    int finalized = jdbcTemplate.update(
+        "UPDATE batch_jobs SET status = 'done', requested_action = NULL, updated_at = CURRENT_TIMESTAMP " +
+        "WHERE batch_id = ? AND status = 'running' " +
+        "AND NOT EXISTS (SELECT 1 FROM batch_chunks c WHERE c.batch_id = ? AND c.status NOT IN ('done', 'skipped'))",
+        chunk.batchId(), chunk.batchId());
+    if (finalized == 0) return false;
+    jdbcTemplate.update("DELETE FROM batch_input_rows WHERE batch_id = ?", chunk.batchId());
+    return true;
+  }
+
+  /** Credits ran out: chunks nobody has started yet are skipped instead of each reporting the limit again. */
+  public void skipRemaining(int batchId) {
+    jdbcTemplate.update("UPDATE batch_chunks SET status = 'skipped' WHERE batch_id = ? AND status = 'queued'", batchId);
+  }
+
+  /**
+   * Hands a running chunk back to the queue. After an unexpected error the attempt counts towards
+   * max-attempts; a graceful shutdown (countAttempt = false) does not use up a retry.
+   */
+  public void release(ClaimedChunk chunk, String nodeId, boolean countAttempt) {
+    jdbcTemplate.update(
+        "UPDATE batch_chunks SET status = 'queued', lease_owner = NULL, lease_expires_at = NULL" +
+        (countAttempt ? " " : ", attempts = GREATEST(attempts - 1, 0) ") +
+        "WHERE batch_id = ? AND chunk_index = ? AND lease_owner = ? AND status = 'running'",
+        chunk.batchId(), chunk.chunkIndex(), nodeId);
+  }
+
+  /**
+   * This node stopped a chunk on request. A paused chunk goes back to the queue with its checkpoint
+   * (so does one whose pause was withdrawn meanwhile); a cancelled one is closed. Returns true when
+   * that was the batch's last running chunk and the job itself is now cancelled or paused.
+   */
+  public boolean stopped(ClaimedChunk chunk, String nodeId, String action) {
+    jdbcTemplate.update(
+        "UPDATE batch_chunks SET status = ?, lease_owner = NULL, lease_expires_at = NULL, attempts = GREATEST(attempts - 1, 0) " +
+        "WHERE batch_id = ? AND chunk_index = ? AND lease_owner = ? AND status = 'running'",
+        "cancel".equals(action) ? "cancelled" : "queued", chunk.batchId(), chunk.chunkIndex(), nodeId);
+    return applyStop(chunk.batchId()) != null;
+  }
+
+  /** Gives up on a batch whose chunk keeps failing, so it cannot block workers forever. */
+  public void fail(ClaimedChunk chunk, String nodeId) {
+    int batchId = chunk.batchId();
+    // The failing chunk itself is closed under its fence, or it would stay running and be claimed again
+    jdbcTemplate.update(
+        "UPDATE batch_chunks SET status = 'failed', lease_owner = NULL, lease_expires_at = NULL " +
+        "WHERE batch_id = ? AND chunk_index = ? AND lease_owner = ? AND status = 'running'",
+        batchId, chunk.chunkIndex(), nodeId);
+    int updated = jdbcTemplate.update(
+        "UPDATE batch_jobs SET status = 'failed', requested_action = NULL, updated_at = CURRENT_TIMESTAMP " +
+        "WHERE batch_id = ? AND status IN ('queued', 'running')",
+        batchId);
+    if (updated == 0) return;
+    // Chunks still running elsewhere see the failed job at their next stop-request poll
+    jdbcTemplate.update("UPDATE batch_chunks SET status = 'failed' WHERE batch_id = ? AND status = 'queued'", batchId);
+    jdbcTemplate.update("DELETE FROM batch_input_rows WHERE batch_id = ?", batchId);
+  }
+
+  // =========================================================================================
+  // CONTROL: CANCEL / PAUSE / RESUME
+  // =========================================================================================
+
+  /**
+   * Cancels ("cancel") or pauses ("pause") a batch. A job with no chunk running anywhere is stopped
+   * here and then; otherwise requested_action is set and the nodes holding its chunks stop them
+   * before their next row.
+   * Returns the job's state afterwards (cancelled, paused, cancelling, pausing, or the unchanged
+   * status when there is nothing to stop), or null if the batch has no job.
+   */
+  public String requestStop(int batchId, String action) {
+    if ("cancel".equals(action)) {
+      int updated = jdbcTemplate.update(
+          "UPDATE batch_jobs SET status = 'cancelled', requested_action = NULL, updated_at = CURRENT_TIMESTAMP " +
+          "WHERE batch_id = ? AND status = 'paused'",
+          batchId);
+      if (updated > 0) {
+        stoppedJob(batchId, "cancelled");
+        return "cancelled";
+      }
+    }
+    // A pending pause may still be turned into a cancel, not the other way round
+    int updated = jdbcTemplate.update(
+        "UPDATE batch_jobs SET requested_action = ?, updated_at = CURRENT_TIMESTAMP " +
+        "WHERE batch_id = ? AND status IN ('queued', 'running') AND (requested_action IS NULL OR requested_action = 'pause')",
+        action, batchId);
+    if (updated == 0) return status(batchId);
+    String stopped = applyStop(batchId);
+    if (stopped != null) return stopped;
+    return "cancel".equals(action) ? "cancelling" : "pausing";
+  }
+
+  /**
+   * Resumes a paused batch (queued again from its chunk checkpoints, with a fresh set of attempts) or
+   * withdraws a pause its chunks have not acted on yet. Returns the job's state afterwards.
+   */
+  public String resume(int batchId) {
+    int updated = jdbcTemplate.update(
+        "UPDATE batch_jobs SET status = 'queued', requested_action = NULL, updated_at = CURRENT_TIMESTAMP " +
+        "WHERE batch_id = ? AND status = 'paused'",
+        batchId);
+    if (updated > 0) {
+      jdbcTemplate.update("UPDATE batch_chunks SET attempts = 0 WHERE batch_id = ? AND status = 'queued'", batchId);
+      markBatch(batchId, "processing");
+      return "queued";
+    }
+    jdbcTemplate.update(
+        "UPDATE batch_jobs SET requested_action = NULL, updated_at = CURRENT_TIMESTAMP " +
+        "WHERE batch_id = ? AND status IN ('queued', 'running') AND requested_action = 'pause'",
+        batchId);
+    return status(batchId);
+  }
+
+  /**
+   * Stop requests for the chunks this node holds: batch id -> "cancel" | "pause".
+   * A batch that failed or was stopped elsewhere meanwhile counts as cancelled.
+   */
+  public Map<Integer, String> requestedActions(String nodeId) {
+    Map<Integer, String> actions = new HashMap<>();
+    jdbcTemplate.query(
+        "SELECT DISTINCT c.batch_id, COALESCE(j.requested_action, 'cancel') AS action FROM batch_chunks c " +
+        "JOIN batch_jobs j ON j.batch_id = c.batch_id " +
+        "WHERE c.lease_owner = ? AND c.status = 'running' " +
+        "AND (j.requested_action IS NOT NULL OR j.status NOT IN ('queued', 'running'))",
+        rs -> {
+          actions.put(rs.getInt("batch_id"), rs.getString("action"));
+        },
+        nodeId);
+    return actions;
+  }
+
+  /** Applies stop requests left pending by a node that died while holding a chunk (its lease has run out by now). */
+  public void applyPendingStops() {
+    List<Integer> pending = jdbcTemplate.queryForList("SELECT batch_id FROM batch_jobs WHERE requested_action IS NOT NULL", Integer.class);
+    for (Integer batchId : pending) applyStop(batchId);
+  }
+
+  // =========================================================================================
+  // NODES: HEARTBEAT / LIVE COUNT
+  // =========================================================================================
+
+  /** Records that this node is alive and returns how many nodes have checked in within `liveSeconds` (at least 1). */
+  public int heartbeat(String nodeId, int liveSeconds) {
+    jdbcTemplate.update(
+        "INSERT INTO worker_nodes (node_id, heartbeat_at) VALUES (?, CURRENT_TIMESTAMP) " +
+        "ON CONFLICT (node_id) DO UPDATE SET heartbeat_at = CURRENT_TIMESTAMP",
+        nodeId);
+    // Long-dead nodes are forgotten so the table stays small
+    jdbcTemplate.update("DELETE FROM worker_nodes WHERE heartbeat_at < CURRENT_TIMESTAMP - make_interval(secs => ?)", liveSeconds * 10);
+    Integer live = jdbcTemplate.queryForObject(
+        "SELECT COUNT(*) FROM worker_nodes WHERE heartbeat_at >= CURRENT_TIMESTAMP - make_interval(secs => ?)",
+        Integer.class, liveSeconds);
+    return live != null ? Math.max(1, live) : 1;
+  }
+
+  /** Graceful shutdown: the other nodes take over this node's share at their next heartbeat. */
+  public void leave(String nodeId) {
+    jdbcTemplate.update("DELETE FROM worker_nodes WHERE node_id = ?", nodeId);
+  }
+
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  public int getLeaseSeconds() {
+    return leaseSeconds;
+  }
+
+  // Read on metrics scrape
+  private double countJobs(String status) {
+    try {
+      Integer n = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM batch_jobs WHERE status = ?", Integer.class, status);
+      return n != null ? n : 0;
+    } catch (Exception e) {
+      return Double.NaN;
+    }
+  }
+
+  private double countRunningChunks() {
+    try {
+      Integer n = jdbcTemplate.queryForObject(
+          "SELECT COUNT(*) FROM batch_chunks WHERE status = 'running' AND lease_expires_at >= CURRENT_TIMESTAMP", Integer.class);
+      return n != null ? n : 0;
+    } catch (Exception e) {
+      return Double.NaN;
+    }
+  }
+
+  private String status(int batchId) {
+    List<String> status = jdbcTemplate.queryForList("SELECT status FROM batch_jobs WHERE batch_id = ?", String.class, batchId);
+    return status.isEmpty() ? null : status.get(0);
+  }
+
+  // Turns a pending request into the job's state once no chunk of it runs on a live lease; returns the new status or null
+  private String applyStop(int batchId) {
+    List<String> stopped = jdbcTemplate.queryForList(
+        "UPDATE batch_jobs SET status = CASE requested_action WHEN 'cancel' THEN 'cancelled' ELSE 'paused' END, " +
+        "requested_action = NULL, updated_at = CURRENT_TIMESTAMP " +
+        "WHERE batch_id = ? AND requested_action IS NOT NULL AND status IN ('queued', 'running') " +
+        "AND NOT EXISTS (SELECT 1 FROM batch_chunks c WHERE c.batch_id = ? AND c.status = 'running' AND c.lease_expires_at >= CURRENT_TIMESTAMP) " +
+        "RETURNING status",
+        String.class, batchId, batchId);
+    if (stopped.isEmpty()) return null;
+    stoppedJob(batchId, stopped.get(0));
+    return stopped.get(0);
+  }
+
+  private void stoppedJob(int batchId, String status) {
+    // Chunks of a dead node (expired lease) keep their checkpoint and are picked up again on resume
+    jdbcTemplate.update(
+        "UPDATE batch_chunks SET status = ?, lease_owner = NULL, lease_expires_at = NULL WHERE batch_id = ? AND status IN ('queued', 'running')",
+        "cancelled".equals(status) ? "cancelled" : "queued", batchId);
+    if ("cancelled".equals(status)) jdbcTemplate.update("DELETE FROM batch_input_rows WHERE batch_id = ?", batchId);
+    markBatch(batchId, status);
+  }
+
+  // batches.status is what the dashboard shows: processing | complete | failed | cancelled | paused
+  private void markBatch(int batchId, String status) {
+    jdbcTemplate.update("UPDATE batches SET status = ? WHERE id = ?", status, batchId);
+  }
+
+  /**
+   * Input lines of a chunk for the worker: the header (row 0), then the data rows after `afterRow`
+   * up to `lastRow`. Fetched lazily in pages by row_index, so only one page is in memory however large
+   * the chunk is and no connection is held between pages.
+   */
+  public Iterable<String[]> inputRows(int batchId, int afterRow, int lastRow) {
+    return () -> new Iterator<>() {
+      private final ArrayDeque<String[]> page = new ArrayDeque<>();
+      private int lastIndex = -1;
+      private boolean exhausted;
+
+      @Override
+      public boolean hasNext() {
+        if (page.isEmpty() && !exhausted) fetchPage();
+        return !page.isEmpty();
+      }
+
+      @Override
+      public String[] next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        return page.poll();
+      }
+
+      private void fetchPage() {
+        jdbcTemplate.query(
+            "SELECT row_index, line FROM batch_input_rows WHERE batch_id = ? AND row_index > ? AND (row_index = 0 OR row_index > ?) " +
+            "AND row_index <= ? ORDER BY row_index LIMIT ?",
+            rs -> {
+              lastIndex = rs.getInt("row_index");
+              Array line = rs.getArray("line");
+              page.add((String[]) line.getArray());
+              line.free();
+            },
+            batchId, lastIndex, afterRow, lastRow, READ_PAGE);
+        if (page.size() < READ_PAGE) exhausted = true;
+      }
+    };
+  }
+}
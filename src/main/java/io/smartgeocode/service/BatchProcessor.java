@@ -0,0 +1,547 @@
+package io.smartgeocode.service;
+
+import com.sendgrid.Method;
+import com.sendgrid.Request;
+import com.sendgrid.SendGrid;
+import com.sendgrid.helpers.mail.Mail;
+import com.sendgrid.helpers.mail.objects.Content;
+import com.sendgrid.helpers.mail.objects.Email;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.smartgeocode.provider.GeocodeProviderRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * BatchProcessor
+ * Waterfall geocoding engine for uploaded CSV batches, run as a staged pipeline:
+ * row read -> query build -> cache check -> rate-limited async provider call -> in-order result write.
+ * Up to batch.pipeline.window rows are in flight at once, so cache hits and local lookups complete
+ * immediately instead of queueing behind remote calls, and several remote calls can overlap when the
+ * provider allows it. Rows are written strictly in input order.
+ * Rows with the same normalized (address, landmark, city, state, country, zip) tuple run the
+ * waterfall once per node, across all chunks of the batch that run here; every occurrence is written
+ * (and billed) from the shared result. Repeats in chunks on other nodes hit the shared result store.
+ * Each call runs one queue chunk (a fixed range of input rows, see BatchJobQueue), so the chunks of
+ * one batch can run on different nodes at once. Finished rows go to batch_results in result chunks,
+ * committed together with progress and the queue chunk's checkpoint, so each result is written once
+ * and a chunk picked up again after a crash or redeploy continues after its last committed rows.
+ * For providers without a rate ceiling (self-hosted, stub) the per-row work itself becomes the limit,
+ * so every row's waterfall (field extraction, dedupe, and each attempt: cache check, local index lookups,
+ * provider call and result mapping) runs on batch.pipeline.parallelism row workers instead of the chunk
+ * thread or whichever thread completed the previous attempt; results may then finish in any order and the
+ * window doubles as the reorder buffer that releases them to the writer in input order.
+ * Cancel and pause are cooperative: the flag is checked before every row, queued provider calls of
+ * the batch are dropped at once, and rows still in the window are discarded unwritten (and unbilled),
+ * so everything already committed stays downloadable and a resumed batch redoes only the rest.
+ * A chunk whose lease went to another node stops the same way, but commits nothing more: its
+ * uncommitted rows are redone by the new owner from the last checkpoint.
+ */
+@Service
+public class BatchProcessor {
+
+  // API Keys loaded from Environment Variables
+  private final String SENDGRID_API_KEY = System.getenv("SENDGRID_API_KEY");
+
+  @Autowired
+  private DataSource dataSource;
+
+  @Autowired
+  private LookupService lookupService;
+
+  @Autowired
+  private GeocodeService geocodeService;
+
+  @Autowired
+  private GeocodeRateLimiter rateLimiter;
+
+  @Autowired
+  private BatchResultStore resultStore;
+
+  @Autowired
+  private BatchProgressRegistry progressRegistry;
+
+  @Autowired
+  private LocalGazetteer gazetteer;
+
+  @Autowired
+  private PostalCodeIndex postalIndex;
+
+  @Autowired
+  private GeocodeProviderRegistry providers;
+
+  @Value("${batch.pipeline.window:32}")
+  private int windowSize;
+
+  // Row workers per node running the waterfalls for unthrottled providers; 0 = one per core, 1 = off (chunk thread only)
+  @Value("${batch.pipeline.parallelism:0}")
+  private int parallelism;
+
+  // Shared by all chunks on this node; null when parallel mode is off
+  private ExecutorService rowPool;
+
+  @Value("${batch.dedupe.max-entries:50000}")
+  private int dedupeEntries;
+
+  // Batch -> normalized row tuple -> its (possibly still running) waterfall, shared by the batch's chunks on
+  // this node whether they run at once or one after another. A few recent batches only: a map held by a
+  // running chunk stays usable after it is evicted here
+  private final Cache<Integer, Map<String, CompletableFuture<RowResult>>> batchRows = Caffeine.newBuilder()
+      .maximumSize(16)
+      .expireAfterAccess(Duration.ofMinutes(10))
+      .build();
+
+  @Value("${batch.credits.reserve-chunk:500}")
+  private int reserveChunk;
+
+  @Value("${batch.results.chunk-rows:200}")
+  private int chunkRows;
+
+  @Value("${batch.results.flush-ms:5000}")
+  private long flushMs;
+
+  /**
+   * How a chunk run ended: all rows written, credits ran out (limit row written), invalid input
+   * (batch already marked failed), stopped on request, or stopped because another node owns the chunk now.
+   */
+  public enum Outcome { FINISHED, LIMIT_REACHED, INVALID, CANCELLED, PAUSED, LEASE_LOST }
+
+  // One geocoded row waiting for its turn to be written
+  private record PendingRow(String inputRep, CompletableFuture<RowResult> result) {
+  }
+
+  private record RowResult(Map<String, Object> result, String matchType) {
+    boolean isSuccess() {
+      return "success".equals(result.get("status"));
+    }
+  }
+
+  // Per-chunk write state: finished rows are buffered and committed in result chunks together with
+  // processed_rows, the queue chunk's checkpoint and the credits they consumed, so a crash loses (and re-runs) at most one result chunk.
+  // Credits come from the batch's reservation, taken in chunks up front: every row in flight holds one,
+  // successful rows spend it, failed rows hand it back - no per-row usage queries. Whatever a run holds
+  // at the end goes back to the reservation, so chunks running elsewhere can use it.
+  private final class Run {
+    final int batchId;
+    final int chunkIndex;
+    final int lastRow;
+    final String nodeId;
+    final Long userId;
+    final List<BatchResultStore.Row> chunk = new ArrayList<>(chunkRows);
+    final BatchProgressRegistry.Progress progress;
+    final BooleanSupplier leaseLost;
+    int processed; // row_index of the last row written
+    int unbilled;
+    int credits;
+    long lastFlush = System.currentTimeMillis();
+
+    Run(BatchJobQueue.ClaimedChunk claimed, String nodeId, BooleanSupplier leaseLost) {
+      this.batchId = claimed.batchId();
+      this.chunkIndex = claimed.chunkIndex();
+      this.lastRow = claimed.lastRow();
+      this.nodeId = nodeId;
+      this.userId = claimed.userId();
+      this.processed = claimed.checkpointRow();
+      this.progress = progressRegistry.start(batchId);
+      this.leaseLost = leaseLost;
+    }
+
+    // Stop requested by the owner, or the chunk is no longer ours to write
+    boolean halted() {
+      return progress.isStopped() || leaseLost.getAsBoolean();
+    }
+
+    // Takes one credit for a row about to start, reserving another chunk (never more than the rows left) when the local pool is empty
+    boolean takeCredit() {
+      if (credits == 0) credits += lookupService.reserveCredits(userId, batchId, Math.min(reserveChunk, lastRow - processed));
+      if (credits == 0) return false;
+      credits--;
+      return true;
+    }
+
+    void add(String inputRep, RowResult row) {
+      Map<String, Object> result = row.result();
+      processed++;
+      chunk.add(new BatchResultStore.Row(processed, inputRep,
+          String.valueOf(result.getOrDefault("lat", "")),
+          String.valueOf(result.getOrDefault("lng", "")),
+          String.valueOf(result.getOrDefault("formatted_address", "")),
+          String.valueOf(result.get("status")),
+          row.matchType()));
+      // Update Usage (Only on Success): the row's credit is spent, otherwise it goes back to the pool
+      if (row.isSuccess()) unbilled++;
+      else credits++;
+      // Live progress for status polls; the database copy moves with each chunk
+      progress.rowWritten();
+      if (chunk.size() >= chunkRows || System.currentTimeMillis() - lastFlush >= flushMs) flush();
+    }
+
+    void flush() {
+      lastFlush = System.currentTimeMillis();
+      if (chunk.isEmpty()) return;
+      try {
+        resultStore.appendChunk(batchId, chunkIndex, nodeId, chunk, processed, unbilled);
+      } catch (SQLException e) {
+        // Output and checkpoint did not move; let the chunk be retried from its last checkpoint
+        throw new IllegalStateException("Batch #" + batchId + " chunk " + chunkIndex + " result write failed: " + e.getMessage(), e);
+      }
+      progress.committed(chunk.size());
+      chunk.clear();
+      unbilled = 0;
+    }
+
+    // Rows not yet committed are dropped for the next owner to redo: their credits go back with the rest,
+    // and they stop counting as pending for other chunks of the batch still running here
+    void discard() {
+      credits += unbilled;
+      unbilled = 0;
+      progress.dropped(chunk.size());
+      chunk.clear();
+    }
+
+    // Credits still held locally (rows never started or dropped on stop) go back to the reservation
+    void returnCredits() {
+      if (credits <= 0) return;
+      try {
+        lookupService.returnCredits(batchId, credits);
+        credits = 0;
+      } catch (Exception e) {
+        System.err.println("[BATCH] Returning " + credits + " credits of #" + batchId + " failed (released at settlement): " + e.getMessage());
+      }
+    }
+  }
+
+  @PostConstruct
+  public void init() {
+    if (parallelism <= 0) parallelism = Runtime.getRuntime().availableProcessors();
+    if (parallelism <= 1) return;
+    rowPool = Executors.newFixedThreadPool(parallelism, r -> {
+      Thread t = new Thread(r, "batch-row");
+      t.setDaemon(true);
+      return t;
+    });
+    System.out.println("Batch Row Workers: " + parallelism + " (used for providers without a rate limit)");
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    if (rowPool != null) rowPool.shutdownNow();
+  }
+
+  // =========================================================================================
+  // LOGIC ENGINE: WATERFALL GEOCODING PIPELINE
+  // =========================================================================================
+  // rows: the header line, then the chunk's data rows after its checkpoint (already written and billed by an earlier owner).
+  // leaseLost turns true once another node has taken the chunk over; the run then stops like a pause, without writing
+  public Outcome processChunk(BatchJobQueue.ClaimedChunk chunk, String nodeId, Iterable<String[]> rows, BooleanSupplier leaseLost) {
+    Run run = new Run(chunk, nodeId, leaseLost);
+    try {
+      return process(run, rows, chunk);
+    } finally {
+      // Rows still buffered were never committed (lease lost, or the write failed)
+      run.discard();
+      run.returnCredits();
+      progressRegistry.finish(chunk.batchId(), run.progress);
+    }
+  }
+
+  private Outcome process(Run run, Iterable<String[]> rows, BatchJobQueue.ClaimedChunk claimed) {
+    int batchId = run.batchId;
+    Long userId = run.userId;
+    String[] headers = null;
+    Map<String, Integer> colMap = new HashMap<>();
+    // Parallel only when the provider has no rate limit: with one, permits are the bottleneck, not this loop
+    boolean parallel = rowPool != null && providers.active().requestsPerSecond() <= 0;
+    int windowRows = parallel ? windowSize * parallelism : windowSize;
+    ArrayDeque<PendingRow> window = new ArrayDeque<>(windowRows);
+    // Intra-batch dedupe, bounded LRU so memory stays flat on huge uploads; evicted repeats still hit the L1 cache.
+    // Guarded by itself: row workers and other chunks of the batch look rows up concurrently.
+    Map<String, CompletableFuture<RowResult>> uniqueRows = batchRows.get(batchId, id -> new LinkedHashMap<>(256, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<RowResult>> eldest) {
+        return size() > dedupeEntries;
+      }
+    });
+    AtomicInteger uniqueCount = new AtomicInteger();
+    // Provider permits are shared fairly between all running batches; premium owners get a heavier lane
+    GeocodeRateLimiter.Tenant tenant = rateLimiter.batchTenant(userId, lookupService.getTier(userId), run::halted);
+    if (claimed.checkpointRow() >= claimed.firstRow()) System.out.println("Batch #" + batchId + " chunk " + run.chunkIndex + " resuming after row " + claimed.checkpointRow());
+
+    for (String[] line : rows) {
+      // 1. Process Header Row
+      if (headers == null) {
+        headers = line;
+        for (int i = 0; i < headers.length; i++) {
+          // Normalize header names to lowercase
+          colMap.put(headers[i].toLowerCase().trim(), i);
+        }
+        // Validate required columns exist
+        if (!colMap.containsKey("address") && !colMap.containsKey("landmark")) {
+          failBatch(batchId, "Invalid CSV: Must contain 'address' or 'landmark' column header.");
+          return Outcome.INVALID;
+        }
+        continue;
+      }
+
+      // Cancel / pause requested by the owner, or lease lost: stop before starting another row
+      if (run.halted()) return stop(run);
+
+      // 2. Dynamic Limit Check (Stop if user runs out of credits mid-batch).
+      // Rows still in the window hold a credit each; only when none is left or reservable is the window settled
+      if (!run.takeCredit()) {
+        // Not every in-flight row will succeed: failed ones return their credit
+        drain(window, 0, run);
+        if (run.halted()) return stop(run);
+        if (!run.takeCredit()) {
+          // The LIMIT REACHED row is added once the whole batch is finished (finishBatch), after every other row
+          run.flush();
+          System.out.println("Batch #" + batchId + " chunk " + run.chunkIndex + " stopped: Limit reached.");
+          return Outcome.LIMIT_REACHED;
+        }
+      }
+
+      // 3. Extract Data Fields and start the waterfall (does not block), on a row worker in parallel mode
+      String inputRep = (getVal(line, colMap, "landmark") + " " + getVal(line, colMap, "address")).trim();
+      CompletableFuture<RowResult> result = parallel
+          ? CompletableFuture.supplyAsync(() -> startRow(line, colMap, uniqueRows, uniqueCount, tenant, rowPool), rowPool).thenCompose(f -> f)
+          : startRow(line, colMap, uniqueRows, uniqueCount, tenant, null);
+      window.add(new PendingRow(inputRep, result));
+
+      // 4. Write every finished row at the head of the window; block only when the window is full
+      drain(window, windowRows - 1, run);
+    }
+
+    drain(window, 0, run);
+    if (run.halted()) return stop(run);
+    run.flush();
+    System.out.println("Batch #" + batchId + " chunk " + run.chunkIndex + " done: rows " + claimed.firstRow() + "-" + claimed.lastRow() +
+        " (" + uniqueCount.get() + " unique" + (parallel ? ", " + parallelism + " row workers" : "") + ")");
+    return Outcome.FINISHED;
+  }
+
+  // Starts the waterfall for one row unless an identical row already did. The dedupe entry is claimed
+  // under the lock but the waterfall starts outside it, since a cache hit can run the whole chain inline.
+  // `steps` runs each attempt of the waterfall (null: inline, on the thread that completed the previous one)
+  private CompletableFuture<RowResult> startRow(String[] line, Map<String, Integer> colMap, Map<String, CompletableFuture<RowResult>> uniqueRows,
+                                               AtomicInteger uniqueCount, GeocodeRateLimiter.Tenant tenant, Executor steps) {
+    String address = getVal(line, colMap, "address");
+    String landmark = getVal(line, colMap, "landmark");
+    String city = getVal(line, colMap, "city");
+    String state = getVal(line, colMap, "state");
+    String country = getVal(line, colMap, "country");
+    String zip = getVal(line, colMap, "zip");
+    String key = rowKey(address, landmark, city, state, country, zip);
+    CompletableFuture<RowResult> mine = new CompletableFuture<>();
+    synchronized (uniqueRows) {
+      CompletableFuture<RowResult> existing = uniqueRows.get(key);
+      if (existing != null) return existing;
+      uniqueRows.put(key, mine);
+    }
+    uniqueCount.incrementAndGet();
+    geocodeRow(tenant, steps, address, landmark, city, state, country, zip).whenComplete((r, e) -> {
+      if (e != null) {
+        // A failed (or stopped) waterfall is not reused by later chunks
+        synchronized (uniqueRows) {
+          uniqueRows.remove(key, mine);
+        }
+        mine.completeExceptionally(e);
+      } else {
+        mine.complete(r);
+      }
+    });
+    return mine;
+  }
+
+  // Hands rows from the head of the window to the writer in input order until at most `keep` remain and the head is unfinished.
+  // Once the run is halted nothing more is written: a row finishing now may carry a dropped provider call.
+  // A row whose waterfall failed is written as an error row (its credit goes back) instead of failing the chunk
+  private void drain(ArrayDeque<PendingRow> window, int keep, Run run) {
+    while (!window.isEmpty() && (window.size() > keep || window.peek().result().isDone())) {
+      PendingRow row = window.poll();
+      RowResult result = row.result().handle((r, e) -> e == null ? r : failedRow(run, e)).join();
+      if (run.halted()) return;
+      run.add(row.inputRep(), result);
+    }
+  }
+
+  private static RowResult failedRow(Run run, Throwable e) {
+    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    if (!run.halted()) {
+      System.err.println("[BATCH] Batch #" + run.batchId + " row " + (run.processed + 1) + " failed: " + cause);
+    }
+    return new RowResult(Map.of("status", "error"), "none");
+  }
+
+  // Commits what was written so far; the rest of the window is dropped and its credits go back with the settlement.
+  // After a lease loss nothing is committed: the fence would reject it and the new owner redoes those rows
+  private Outcome stop(Run run) {
+    rateLimiter.purgeCancelled();
+    if (run.leaseLost.getAsBoolean()) {
+      run.discard();
+      System.out.println("Batch #" + run.batchId + " chunk " + run.chunkIndex + " stopped: lease taken over by another node");
+      return Outcome.LEASE_LOST;
+    }
+    run.flush();
+    boolean cancelled = "cancel".equals(run.progress.stopRequested());
+    System.out.println("Batch #" + run.batchId + " chunk " + run.chunkIndex + (cancelled ? " cancelled" : " paused") + " after row " + run.processed);
+    return cancelled ? Outcome.CANCELLED : Outcome.PAUSED;
+  }
+
+  // --- WATERFALL STRATEGY ---
+  // Try most specific query first, then fallback to broader queries. Each attempt only runs if all
+  // previous ones failed; local indexes answer inline, provider calls are chained asynchronously.
+  private CompletableFuture<RowResult> geocodeRow(GeocodeRateLimiter.Tenant tenant, Executor steps, String address, String landmark, String city, String state, String country, String zip) {
+    CompletableFuture<RowResult> chain = CompletableFuture.completedFuture(new RowResult(Map.of("status", "error"), "none"));
+    BooleanSupplier stopped = tenant.cancelled();
+
+    // Attempt 1: Landmark + City + Country
+    if (!landmark.isEmpty()) {
+      chain = attempt(chain, steps, stopped, "landmark_context", () -> geocodeService.geocodeAsync(buildQuery(landmark, city, state, country), tenant));
+    }
+    // Attempt 2: Address + City + State + Country (Standard)
+    if (!address.isEmpty()) {
+      chain = attempt(chain, steps, stopped, "address_context", () -> geocodeService.geocodeAsync(buildQuery(address, city, state, country), tenant));
+    }
+    // Attempt 3: Landmark Only (Global Search)
+    if (!landmark.isEmpty()) {
+      chain = attempt(chain, steps, stopped, "landmark_only", () -> geocodeService.geocodeAsync(landmark, tenant));
+    }
+    // Attempt 4: Address Only (Global Search)
+    if (!address.isEmpty()) {
+      chain = attempt(chain, steps, stopped, "address_only", () -> geocodeService.geocodeAsync(address, tenant));
+    }
+    // Attempt 5a: Postal Code Centroid from the Local Index (no provider call)
+    if (!zip.isEmpty()) {
+      chain = attempt(chain, steps, stopped, "postal_fallback", () -> local(postalIndex.resolve(zip, country)));
+    }
+    // Attempt 5b: City Fallback from the Local Gazetteer (no provider call)
+    if (!city.isEmpty()) {
+      chain = attempt(chain, steps, stopped, "city_fallback", () -> local(gazetteer.resolve(city, state, country)));
+    }
+    // Attempt 5c: City/Zip Fallback via Provider (Last Resort)
+    String cityQuery = buildQuery("", city, state, country);
+    if (!cityQuery.isEmpty()) {
+      chain = attempt(chain, steps, stopped, "city_fallback", () -> geocodeService.geocodeAsync(cityQuery, tenant));
+    }
+    return chain;
+  }
+
+  // A stopped batch skips its remaining attempts instead of queueing more provider calls
+  private CompletableFuture<RowResult> attempt(CompletableFuture<RowResult> previous, Executor steps, BooleanSupplier stopped, String matchType,
+                                               Supplier<CompletableFuture<Map<String, Object>>> lookup) {
+    Function<RowResult, CompletableFuture<RowResult>> next = prior -> prior.isSuccess() || stopped.getAsBoolean()
+        ? CompletableFuture.completedFuture(prior)
+        : lookup.get().thenApply(result -> "success".equals(result.get("status")) ? new RowResult(result, matchType) : new RowResult(result, prior.matchType()));
+    return steps == null ? previous.thenCompose(next) : previous.thenComposeAsync(next, steps);
+  }
+
+  private static CompletableFuture<Map<String, Object>> local(Map<String, Object> result) {
+    return CompletableFuture.completedFuture(result != null ? result : Map.of("status", "error"));
+  }
+
+  // =========================================================================================
+  // HELPER METHODS
+  // =========================================================================================
+
+  // Safely get value from CSV row
+  private String getVal(String[] line, Map<String, Integer> map, String key) {
+    if (map.containsKey(key) && map.get(key) < line.length) {
+      String val = line[map.get(key)];
+      return val != null ? val.trim() : "";
+    }
+    return "";
+  }
+
+  // Dedupe key: every field normalized on its own, so "Texas" in the state column matches "TX"
+  private static String rowKey(String address, String landmark, String city, String state, String country, String zip) {
+    return String.join("|",
+        AddressNormalizer.normalize(address), AddressNormalizer.normalize(landmark), AddressNormalizer.normalize(city),
+        AddressNormalizer.normalizeState(state), AddressNormalizer.normalize(country), AddressNormalizer.normalize(zip));
+  }
+
+  // Build Query String from parts
+  private String buildQuery(String main, String city, String state, String country) {
+    List<String> parts = new ArrayList<>();
+    if (main != null && !main.isEmpty()) parts.add(main);
+    if (city != null && !city.isEmpty()) parts.add(city);
+    if (state != null && !state.isEmpty()) parts.add(state);
+    if (country != null && !country.isEmpty()) parts.add(country);
+    return String.join(", ", parts);
+  }
+
+  // DB Update: Finish, run by the node that completed the last chunk (output lives in batch_results).
+  // A batch that ran out of credits is complete too: it gets its LIMIT REACHED row as the last row, and no completion email
+  public void finishBatch(int batchId, String email) {
+    try {
+      resultStore.appendLimitReached(batchId);
+    } catch (Exception e) {
+      System.err.println("[BATCH] Batch #" + batchId + " limit row failed: " + e.getMessage());
+    }
+    try (Connection conn = dataSource.getConnection()) {
+      PreparedStatement stmt = conn.prepareStatement(
+          "UPDATE batches SET status = 'complete' WHERE id = ? RETURNING processed_rows, " +
+          "EXISTS (SELECT 1 FROM batch_results r WHERE r.batch_id = batches.id AND r.match_type = 'limit_hit') AS limit_hit");
+      stmt.setInt(1, batchId);
+      ResultSet rs = stmt.executeQuery();
+      if (!rs.next()) return;
+      int total = rs.getInt("processed_rows");
+      if (rs.getBoolean("limit_hit")) {
+        System.out.println("Batch #" + batchId + " stopped: Limit reached. Rows: " + total);
+        return;
+      }
+      sendCompletionEmail(email, batchId, total);
+      System.out.println("Batch #" + batchId + " Complete. Total Rows: " + total);
+    } catch (Exception e) { e.printStackTrace(); }
+  }
+
+  // DB Update: Fail
+  void failBatch(int batchId, String reason) {
+    try (Connection conn = dataSource.getConnection()) {
+      PreparedStatement stmt = conn.prepareStatement("UPDATE batches SET status = 'failed', results = ? WHERE id = ?");
+      stmt.setString(1, reason); stmt.setInt(2, batchId); stmt.executeUpdate();
+    } catch (Exception e) {}
+  }
+
+  // SendGrid Email
+  private void sendCompletionEmail(String email, int batchId, int total) {
+    Email from = new Email("noreply@smartgeocode.io");
+    Email to = new Email(email);
+    String subject = "Batch Processing Complete";
+    String body = "Your batch #" + batchId + " is done. Processed " + total + " rows.\n\nLogin to download: https://geocode-frontend.smartgeocode.io";
+    Content content = new Content("text/plain", body);
+    Mail mail = new Mail(from, subject, to, content);
+    try {
+      SendGrid sg = new SendGrid(SENDGRID_API_KEY);
+      Request request = new Request();
+      request.setMethod(Method.POST);
+      request.setEndpoint("mail/send");
+      request.setBody(mail.build());
+      sg.api(request);
+    } catch (Exception e) { e.printStackTrace(); }
+  }
+}
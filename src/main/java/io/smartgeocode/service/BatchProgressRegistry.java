@@ -0,0 +1,115 @@
+package io.smartgeocode.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BatchProgressRegistry
+ * Live progress of the batches running on this node, as atomic counters bumped once per written row,
+ * plus the cancel/pause flag the batch engine checks between rows. All chunks of a batch running here
+ * share one entry.
+ * /api/batch/{id} adds the rows written here but not yet committed to the database copy
+ * (processed_rows, persisted with each result chunk: every batch.results.chunk-rows rows or
+ * batch.results.flush-ms), so polling sees every row as it completes on this node.
+ */
+@Service
+public class BatchProgressRegistry {
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Autowired
+  private GeocodeRateLimiter rateLimiter;
+
+  private final ConcurrentHashMap<Integer, Progress> running = new ConcurrentHashMap<>();
+
+  public static final class Progress {
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile String stopRequested; // "cancel" or "pause"
+    private int runs; // chunks using this entry, guarded by the registry
+
+    public void rowWritten() {
+      pending.incrementAndGet();
+    }
+
+    /** `rows` written rows are now committed and counted in processed_rows. */
+    public void committed(int rows) {
+      pending.addAndGet(-rows);
+    }
+
+    /** `rows` written rows were dropped without being committed (the chunk will be redone). */
+    public void dropped(int rows) {
+      pending.addAndGet(-rows);
+    }
+
+    /** Rows written on this node that processed_rows does not include yet. */
+    public int pending() {
+      return pending.get();
+    }
+
+    public boolean isStopped() {
+      return stopRequested != null;
+    }
+
+    /** The requested action once stopped, otherwise null. */
+    public String stopRequested() {
+      return stopRequested;
+    }
+
+    // A cancel overrides a pending pause, never the other way round
+    private synchronized boolean requestStop(String action) {
+      if (action.equals(stopRequested) || "cancel".equals(stopRequested)) return false;
+      stopRequested = action;
+      return true;
+    }
+  }
+
+  @PostConstruct
+  public void registerMetrics() {
+    Gauge.builder("batch.running.local", running, ConcurrentHashMap::size)
+        .description("Batches currently being processed on this node")
+        .register(meterRegistry);
+  }
+
+  /** Starts tracking a chunk of a batch; a stopped entry is not reused (the batch was resumed meanwhile). */
+  public Progress start(int batchId) {
+    synchronized (running) {
+      Progress progress = running.get(batchId);
+      if (progress == null || progress.isStopped()) {
+        progress = new Progress();
+        running.put(batchId, progress);
+      }
+      progress.runs++;
+      return progress;
+    }
+  }
+
+  /** Stops tracking a chunk once its final state has been written to the database. */
+  public void finish(int batchId, Progress progress) {
+    synchronized (running) {
+      if (--progress.runs == 0) running.remove(batchId, progress);
+    }
+  }
+
+  /**
+   * Asks a batch running on this node to stop ("cancel" or "pause") before its next row and drops its
+   * queued provider calls right away. Returns false if the batch does not run here.
+   */
+  public boolean requestStop(int batchId, String action) {
+    Progress progress = running.get(batchId);
+    if (progress == null) return false;
+    if (progress.requestStop(action)) rateLimiter.purgeCancelled();
+    return true;
+  }
+
+  /** Live progress if the batch runs on this node, otherwise null (fall back to the database). */
+  public Progress get(int batchId) {
+    return running.get(batchId);
+  }
+}
@@ -0,0 +1,349 @@
+package io.smartgeocode.service;
+
+import org.postgresql.PGConnection;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import javax.sql.DataSource;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * BatchResultStore
+ * Append-only, row-level batch output (batch_results), one row per input row keyed by (batch_id, row_index).
+ * The batch engine COPYs finished rows in chunks, in the same transaction as processed_rows and the
+ * checkpoint of the queue chunk they belong to (and the credits those rows consumed), so every result is
+ * written exactly once even with several nodes working on one batch.
+ * Downloads stream the CSV from here in keyset pages through one fixed-size buffer. The byte length
+ * (and the row a byte offset falls into) is computed in SQL, so Content-Length and Range requests
+ * need no pass over the data in Java.
+ * Once a batch is finished its rows are copied into its compressed archive (BatchArchiveStore); the archive sweep
+ * deletes them here afterwards, but never while a stream that started on them (see openReader) is still reading.
+ * Batches finished before this table existed still have their CSV in batches.results (legacy fallback).
+ */
+@Service
+public class BatchResultStore {
+
+  public static final String CSV_HEADER = "input_address,lat,lng,formatted_address,status,match_type\n";
+
+  /** Output buffer per download stream. */
+  public static final int STREAM_BUFFER = 64 * 1024;
+
+  private static final byte[] HEADER_BYTES = CSV_HEADER.getBytes(StandardCharsets.UTF_8);
+  public static final int STREAM_PAGE = 1000;
+  private static final int LEGACY_SLICE = 256 * 1024;
+
+  // Bytes of one row as appendCsvFields writes it (UTF-8, whatever the server encoding): 6 quoted fields with quotes doubled, 5 commas, newline
+  private static final String ROW_BYTES = "(18" + escapedLength("input_address") + escapedLength("lat") + escapedLength("lng") +
+      escapedLength("formatted_address") + escapedLength("status") + escapedLength("match_type") + ")";
+
+  @Autowired
+  private DataSource dataSource;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  // An open reader (see openReader) that stops renewing, e.g. its node died, no longer holds the rows after this
+  @Value("${batch.results.reader-lease-seconds:600}")
+  private int readerLeaseSeconds;
+
+  /** One output row; rowIndex is the 1-based data row of the upload (row_index in batch_input_rows). */
+  public record Row(int rowIndex, String inputAddress, String lat, String lng, String formattedAddress, String status, String matchType) {
+  }
+
+  /** A batch's CSV download: row-level output, or the legacy results text of an older batch, and its size in bytes. */
+  public record CsvSource(int batchId, boolean legacy, long length) {
+  }
+
+  @PostConstruct
+  public void initTable() {
+    try {
+      jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS batch_results (" +
+          "batch_id INTEGER NOT NULL, " +
+          "row_index INTEGER NOT NULL, " +
+          "input_address TEXT, " +
+          "lat VARCHAR(32), " +
+          "lng VARCHAR(32), " +
+          "formatted_address TEXT, " +
+          "status VARCHAR(20), " +
+          "match_type VARCHAR(50), " +
+          "PRIMARY KEY (batch_id, row_index))");
+      // Row pages filtered by status (e.g. only the failed rows) read just the page, like the primary key does unfiltered
+      jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_batch_results_status ON batch_results (batch_id, status, row_index)");
+      jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS batch_result_readers (" +
+          "reader_id VARCHAR(36) PRIMARY KEY, " +
+          "batch_id INTEGER NOT NULL, " +
+          "expires_at TIMESTAMP NOT NULL)");
+      jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_batch_result_readers_batch ON batch_result_readers (batch_id, expires_at)");
+      System.out.println("Batch Result Store Ready.");
+    } catch (Exception e) {
+      System.err.println("Batch Result Store Init Failed: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Appends finished rows of queue chunk `chunkIndex`, moves the chunk's checkpoint_row to `checkpointRow`,
+   * adds the rows to processed_rows and records `consumedCredits` successful rows against the batch's
+   * credit reservation, atomically. A stale writer (lease lost to another node) is refused and its rows rolled back,
+   * as is a chunk with credits to record against a reservation that has been settled meanwhile.
+   */
+  public void appendChunk(int batchId, int chunkIndex, String nodeId, List<Row> rows, int checkpointRow, int consumedCredits) throws SQLException {
+    try (Connection conn = dataSource.getConnection()) {
+      conn.setAutoCommit(false);
+      try {
+        // Fence first: the row lock also keeps a new owner from claiming the chunk mid-commit
+        try (PreparedStatement stmt = conn.prepareStatement(
+            "UPDATE batch_chunks SET checkpoint_row = ? WHERE batch_id = ? AND chunk_index = ? AND lease_owner = ? AND status = 'running'")) {
+          stmt.setInt(1, checkpointRow);
+          stmt.setInt(2, batchId);
+          stmt.setInt(3, chunkIndex);
+          stmt.setString(4, nodeId);
+          if (stmt.executeUpdate() == 0) throw new SQLException("Lease on chunk " + chunkIndex + " of batch #" + batchId + " is no longer held by " + nodeId);
+        }
+        if (!rows.isEmpty()) {
+          StringBuilder copy = new StringBuilder(rows.size() * 128);
+          for (Row row : rows) {
+            copy.append(batchId).append(',').append(row.rowIndex());
+            appendCsvFields(copy.append(','), row);
+          }
+          conn.unwrap(PGConnection.class).getCopyAPI().copyIn(
+              "COPY batch_results (batch_id, row_index, input_address, lat, lng, formatted_address, status, match_type) FROM STDIN WITH (FORMAT csv)",
+              new StringReader(copy.toString()));
+        }
+        try (PreparedStatement stmt = conn.prepareStatement("UPDATE batches SET processed_rows = processed_rows + ? WHERE id = ?")) {
+          stmt.setInt(1, rows.size());
+          stmt.setInt(2, batchId);
+          stmt.executeUpdate();
+        }
+        // A settled reservation has already been billed: consuming from it would never be charged, so the
+        // chunk rolls back and is retried, reserving afresh
+        if (consumedCredits > 0) {
+          try (PreparedStatement stmt = conn.prepareStatement("UPDATE credit_reservations SET consumed = consumed + ? WHERE batch_id = ? AND NOT settled")) {
+            stmt.setInt(1, consumedCredits);
+            stmt.setInt(2, batchId);
+            if (stmt.executeUpdate() == 0) throw new SQLException("Credit reservation of batch #" + batchId + " is already settled");
+          }
+        }
+        conn.commit();
+      } catch (Exception e) {
+        conn.rollback();
+        throw e instanceof SQLException ? (SQLException) e : new SQLException(e);
+      }
+    }
+  }
+
+  /**
+   * Appends the LIMIT REACHED row after the last row of a batch that stopped for lack of credits (a chunk skipped,
+   * or completed short of its last row), once. Called when the batch is finished, so no chunk writes after it.
+   * Returns whether the row was added.
+   */
+  public boolean appendLimitReached(int batchId) throws SQLException {
+    try (Connection conn = dataSource.getConnection()) {
+      conn.setAutoCommit(false);
+      try {
+        int added;
+        try (PreparedStatement stmt = conn.prepareStatement(
+            "INSERT INTO batch_results (batch_id, row_index, input_address, lat, lng, formatted_address, status, match_type) " +
+            "SELECT ?, (SELECT MAX(last_row) FROM batch_chunks WHERE batch_id = ?) + 1, " +
+            "'LIMIT REACHED', '', '', 'Upgrade to continue processing', 'skipped', 'limit_hit' " +
+            "WHERE EXISTS (SELECT 1 FROM batch_chunks c WHERE c.batch_id = ? AND (c.status = 'skipped' OR c.checkpoint_row < c.last_row)) " +
+            "AND NOT EXISTS (SELECT 1 FROM batch_results l WHERE l.batch_id = ? AND l.match_type = 'limit_hit')")) {
+          for (int i = 1; i <= 4; i++) stmt.setInt(i, batchId);
+          added = stmt.executeUpdate();
+        }
+        if (added > 0) {
+          try (PreparedStatement stmt = conn.prepareStatement("UPDATE batches SET processed_rows = processed_rows + 1 WHERE id = ?")) {
+            stmt.setInt(1, batchId);
+            stmt.executeUpdate();
+          }
+        }
+        conn.commit();
+        return added > 0;
+      } catch (Exception e) {
+        conn.rollback();
+        throw e instanceof SQLException ? (SQLException) e : new SQLException(e);
+      }
+    }
+  }
+
+  /** Sizes the CSV download of a batch (header included); falls back to batches.results for batches written before batch_results. */
+  public CsvSource csvSource(int batchId) {
+    Long rows = jdbcTemplate.queryForObject("SELECT SUM(" + ROW_BYTES + ") FROM batch_results WHERE batch_id = ?", Long.class, batchId);
+    if (rows != null) return new CsvSource(batchId, false, HEADER_BYTES.length + rows);
+    List<Long> legacy = jdbcTemplate.queryForList("SELECT octet_length(convert_to(results, 'UTF8')) FROM batches WHERE id = ? AND results IS NOT NULL", Long.class, batchId);
+    if (!legacy.isEmpty()) return new CsvSource(batchId, true, legacy.get(0));
+    return new CsvSource(batchId, false, HEADER_BYTES.length);
+  }
+
+  /**
+   * Streams bytes from..to (inclusive) of the download to `out`. Rows are read one page at a time and
+   * the connection is returned before the page is written, so neither memory nor a pooled connection is
+   * tied to the size of the batch or the speed of the client. A batch still being written streams
+   * whatever rows exist when each page is read (pass to = Long.MAX_VALUE).
+   */
+  public void writeCsv(CsvSource source, OutputStream out, long from, long to) throws IOException {
+    RangeOutputStream range = new RangeOutputStream(new BufferedOutputStream(out, STREAM_BUFFER), from, to);
+    if (source.legacy()) writeLegacy(source, range);
+    else writeRows(source.batchId(), range);
+    range.flush();
+  }
+
+  private void writeRows(int batchId, RangeOutputStream out) throws IOException {
+    try (Reader reader = openReader(batchId)) {
+      writeRows(batchId, out, reader);
+    }
+  }
+
+  private void writeRows(int batchId, RangeOutputStream out, Reader reader) throws IOException {
+    out.write(HEADER_BYTES);
+    int afterRow = 0;
+    if (out.from > HEADER_BYTES.length) {
+      // Start at the row holding byte `from` instead of rendering everything before it
+      List<long[]> start = jdbcTemplate.query(
+          "SELECT row_index, cum - len AS starts_at FROM (SELECT row_index, len, SUM(len) OVER (ORDER BY row_index) AS cum " +
+          "FROM (SELECT row_index, " + ROW_BYTES + " AS len FROM batch_results WHERE batch_id = ?) r) c " +
+          "WHERE cum > ? ORDER BY row_index LIMIT 1",
+          (rs, i) -> new long[] {rs.getInt("row_index"), rs.getLong("starts_at")},
+          batchId, out.from - HEADER_BYTES.length);
+      if (start.isEmpty()) return;
+      afterRow = (int) start.get(0)[0] - 1;
+      out.skipTo(HEADER_BYTES.length + start.get(0)[1]);
+    }
+    StringBuilder line = new StringBuilder(256);
+    List<Row> page;
+    do {
+      reader.renew();
+      page = page(batchId, afterRow);
+      for (Row row : page) {
+        line.setLength(0);
+        appendCsvFields(line, row);
+        out.write(line.toString().getBytes(StandardCharsets.UTF_8));
+        afterRow = row.rowIndex();
+        if (out.done()) return;
+      }
+    } while (page.size() == STREAM_PAGE);
+  }
+
+  /**
+   * Next page of rows after `afterRow` in row order (keyset paging: call again with the last row's index
+   * until a page comes back shorter than STREAM_PAGE). Each page is one short query.
+   */
+  public List<Row> page(int batchId, int afterRow) {
+    return rows(batchId, afterRow, STREAM_PAGE, null);
+  }
+
+  // Older batches: slices of the stored text, converted to bytes by the database
+  private void writeLegacy(CsvSource source, RangeOutputStream out) throws IOException {
+    long end = Math.min(out.to, source.length() - 1);
+    out.skipTo(out.from);
+    for (long pos = out.from; pos <= end; pos += LEGACY_SLICE) {
+      byte[] slice = jdbcTemplate.queryForObject(
+          "SELECT substring(convert_to(results, 'UTF8') FROM CAST(? AS INTEGER) FOR ?) FROM batches WHERE id = ?",
+          byte[].class, pos + 1, (int) Math.min(LEGACY_SLICE, end - pos + 1), source.batchId());
+      if (slice == null || slice.length == 0) return;
+      out.write(slice);
+    }
+  }
+
+  /**
+   * Up to `limit` rows after `afterRow` in row order, only those with `status` when it is not null.
+   * Keyset paging over (batch_id, row_index) or (batch_id, status, row_index): the cost is one page, wherever it is in the batch.
+   */
+  public List<Row> rows(int batchId, int afterRow, int limit, String status) {
+    String select = "SELECT row_index, input_address, lat, lng, formatted_address, status, match_type FROM batch_results ";
+    if (status == null) {
+      return jdbcTemplate.query(select + "WHERE batch_id = ? AND row_index > ? ORDER BY row_index LIMIT ?",
+          (rs, i) -> mapRow(rs), batchId, afterRow, limit);
+    }
+    return jdbcTemplate.query(select + "WHERE batch_id = ? AND status = ? AND row_index > ? ORDER BY row_index LIMIT ?",
+        (rs, i) -> mapRow(rs), batchId, status, afterRow, limit);
+  }
+
+  /**
+   * Registers a stream about to read the batch's rows page by page (a download or export of a running batch),
+   * so the rows are not deleted under it once the batch is archived. Renew it as pages are read and close it
+   * when done; one that is neither renewed nor closed lapses after batch.results.reader-lease-seconds.
+   */
+  public Reader openReader(int batchId) {
+    String readerId = UUID.randomUUID().toString();
+    jdbcTemplate.update("INSERT INTO batch_result_readers (reader_id, batch_id, expires_at) VALUES (?, ?, CURRENT_TIMESTAMP + make_interval(secs => ?))",
+        readerId, batchId, readerLeaseSeconds);
+    return new Reader(readerId);
+  }
+
+  /** An open reader of a batch's rows (see openReader). */
+  public final class Reader implements AutoCloseable {
+    private final String readerId;
+    private long renewedAt = System.currentTimeMillis();
+
+    private Reader(String readerId) {
+      this.readerId = readerId;
+    }
+
+    /** Extends the lease; cheap to call per page, it only writes once half the lease has passed. */
+    public void renew() {
+      long now = System.currentTimeMillis();
+      if (now - renewedAt < readerLeaseSeconds * 500L) return;
+      jdbcTemplate.update("UPDATE batch_result_readers SET expires_at = CURRENT_TIMESTAMP + make_interval(secs => ?) WHERE reader_id = ?",
+          readerLeaseSeconds, readerId);
+      renewedAt = now;
+    }
+
+    @Override
+    public void close() {
+      jdbcTemplate.update("DELETE FROM batch_result_readers WHERE reader_id = ?", readerId);
+    }
+  }
+
+  /** Whether the batch has row-level output (batches from before batch_results have none). */
+  public boolean hasRows(int batchId) {
+    return !jdbcTemplate.queryForList("SELECT 1 FROM batch_results WHERE batch_id = ? LIMIT 1", Integer.class, batchId).isEmpty();
+  }
+
+  // "input","lat","lng","formatted","status","match_type"\n - every field quoted, quotes doubled
+  static void appendCsvFields(StringBuilder out, Row row) {
+    quoted(out, row.inputAddress()).append(',');
+    quoted(out, row.lat()).append(',');
+    quoted(out, row.lng()).append(',');
+    quoted(out, row.formattedAddress()).append(',');
+    quoted(out, row.status()).append(',');
+    quoted(out, row.matchType()).append('\n');
+  }
+
+  private static StringBuilder quoted(StringBuilder out, String value) {
+    out.append('"');
+    if (value != null) {
+      for (int i = 0; i < value.length(); i++) {
+        char c = value.charAt(i);
+        if (c == '"') out.append('"');
+        out.append(c);
+      }
+    }
+    return out.append('"');
+  }
+
+  private static Row mapRow(ResultSet rs) throws SQLException {
+    return new Row(rs.getInt("row_index"), nz(rs.getString("input_address")), nz(rs.getString("lat")), nz(rs.getString("lng")),
+        nz(rs.getString("formatted_address")), nz(rs.getString("status")), nz(rs.getString("match_type")));
+  }
+
+  private static String escapedLength(String column) {
+    return " + octet_length(convert_to(replace(COALESCE(" + column + ", ''), '\"', '\"\"'), 'UTF8'))";
+  }
+
+  private static String nz(String s) {
+    return s != null ? s : "";
+  }
+}
@@ -0,0 +1,268 @@
+package io.smartgeocode.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+import java.net.InetAddress;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * BatchWorker
+ * Dedicated pool of batch.workers threads that poll the BatchJobQueue, run claimed chunks through
+ * the BatchProcessor and renew their leases while doing so; a chunk whose lease was taken over stops
+ * at its next row. Sized independently of the request threads;
+ * on graceful shutdown running chunks are handed back to the queue for the other nodes.
+ * Every node runs the same workers against the same queue, so batch throughput scales by adding nodes;
+ * a heartbeat in worker_nodes tells each node how many share the provider rate budget.
+ * Cancel/pause requests made on any node reach the local chunks through a short poll of batch_jobs.
+ */
+@Service
+public class BatchWorker {
+
+  @Autowired
+  private BatchJobQueue queue;
+
+  @Autowired
+  private BatchProcessor batchProcessor;
+
+  @Autowired
+  private LookupService lookupService;
+
+  @Autowired
+  private BatchProgressRegistry progressRegistry;
+
+  @Autowired
+  private GeocodeRateLimiter rateLimiter;
+
+  @Autowired
+  private BatchArchiveStore archiveStore;
+
+  @Value("${batch.workers:8}")
+  private int workerCount;
+
+  @Value("${batch.queue.poll-ms:2000}")
+  private long pollMs;
+
+  @Value("${batch.control.poll-ms:2000}")
+  private long controlPollMs;
+
+  @Value("${batch.nodes.heartbeat-seconds:10}")
+  private int heartbeatSeconds;
+
+  private final String nodeId = resolveNodeId();
+  private final Set<BatchJobQueue.ClaimedChunk> runningChunks = ConcurrentHashMap.newKeySet();
+  private ExecutorService workers;
+  private ScheduledExecutorService leaseRenewer;
+  private volatile boolean running;
+
+  // Start polling only once the schema (users/batches/batch_jobs) is in place
+  @EventListener(ApplicationReadyEvent.class)
+  public void start() {
+    running = true;
+    leaseRenewer = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "batch-lease"));
+    // Join the cluster's rate budget before the first claim
+    heartbeat();
+    workers = Executors.newFixedThreadPool(workerCount, r -> daemon(r, "batch-worker"));
+    for (int i = 0; i < workerCount; i++) workers.execute(this::pollLoop);
+    leaseRenewer.scheduleWithFixedDelay(() -> {
+      try {
+        queue.applyPendingStops();
+        lookupService.settleFinishedBatches();
+        archiveStore.archivePending();
+      } catch (Exception e) {
+        System.err.println("[BATCH] Stop/settlement/archive sweep failed: " + e.getMessage());
+      }
+    }, 1, 5, TimeUnit.MINUTES);
+    leaseRenewer.scheduleWithFixedDelay(this::heartbeat, heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+    leaseRenewer.scheduleWithFixedDelay(this::pollStopRequests, controlPollMs, controlPollMs, TimeUnit.MILLISECONDS);
+    System.out.println("Batch Workers Started: " + workerCount + " on node " + nodeId);
+  }
+
+  @PreDestroy
+  public void stop() {
+    running = false;
+    if (workers == null) return;
+    workers.shutdownNow();
+    leaseRenewer.shutdownNow();
+    for (BatchJobQueue.ClaimedChunk chunk : runningChunks) {
+      try {
+        queue.release(chunk, nodeId, false);
+        System.out.println("Batch #" + chunk.batchId() + " chunk " + chunk.chunkIndex() + " handed back to the queue (shutdown).");
+      } catch (Exception e) {
+        System.err.println("[BATCH] Failed to release chunk " + chunk.chunkIndex() + " of #" + chunk.batchId() + ": " + e.getMessage());
+      }
+    }
+    try {
+      queue.leave(nodeId);
+    } catch (Exception e) {
+      System.err.println("[BATCH] Failed to leave worker_nodes: " + e.getMessage());
+    }
+  }
+
+  private void pollLoop() {
+    while (running) {
+      try {
+        BatchJobQueue.ClaimedChunk chunk = queue.claim(nodeId);
+        if (chunk == null) {
+          Thread.sleep(pollMs);
+          continue;
+        }
+        run(chunk);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (Exception e) {
+        System.err.println("[BATCH] Queue poll failed: " + e.getMessage());
+        try {
+          Thread.sleep(pollMs);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  private void run(BatchJobQueue.ClaimedChunk chunk) {
+    int batchId = chunk.batchId();
+    // A chunk that took its node down on every previous attempt is not retried forever
+    if (chunk.attempts() > queue.getMaxAttempts()) {
+      batchProcessor.failBatch(batchId, "Batch failed after " + queue.getMaxAttempts() + " attempts.");
+      queue.fail(chunk, nodeId);
+      settleCredits(batchId);
+      return;
+    }
+
+    System.out.println("Batch #" + batchId + " chunk " + chunk.chunkIndex() + " claimed by " + nodeId + " (attempt " + chunk.attempts() + ")");
+    runningChunks.add(chunk);
+    // A lost lease stops the chunk at its next row; the write fence only guards what it might still commit
+    AtomicBoolean leaseLost = new AtomicBoolean();
+    long renewEvery = Math.max(1, queue.getLeaseSeconds() / 3);
+    ScheduledFuture<?> renewal = leaseRenewer.scheduleAtFixedRate(() -> {
+      try {
+        if (!leaseLost.get() && !queue.renewLease(chunk, nodeId)) {
+          leaseLost.set(true);
+          System.err.println("[BATCH] Lease on #" + batchId + " chunk " + chunk.chunkIndex() + " lost by " + nodeId + ", stopping it");
+        }
+      } catch (Exception e) {
+        System.err.println("[BATCH] Lease renewal failed for #" + batchId + ": " + e.getMessage());
+      }
+    }, renewEvery, renewEvery, TimeUnit.SECONDS);
+
+    try {
+      // Continue after the chunk's last committed row if an earlier owner got that far
+      BatchProcessor.Outcome outcome = batchProcessor.processChunk(chunk, nodeId,
+          queue.inputRows(batchId, chunk.checkpointRow(), chunk.lastRow()), leaseLost::get);
+      switch (outcome) {
+        case FINISHED -> finishChunk(chunk);
+        case LIMIT_REACHED -> {
+          queue.skipRemaining(batchId);
+          finishChunk(chunk);
+        }
+        case INVALID -> {
+          queue.fail(chunk, nodeId);
+          settleCredits(batchId);
+        }
+        // The last chunk to stop turns the request into the job's state; a paused batch reserves afresh when resumed
+        case CANCELLED, PAUSED -> {
+          if (queue.stopped(chunk, nodeId, outcome == BatchProcessor.Outcome.CANCELLED ? "cancel" : "pause")) {
+            settleCredits(batchId);
+            if (outcome == BatchProcessor.Outcome.CANCELLED) archive(batchId);
+          }
+        }
+        // The chunk belongs to its new owner: nothing to release, complete or settle here
+        case LEASE_LOST -> {
+        }
+      }
+    } catch (Exception e) {
+      System.err.println("[BATCH] Batch #" + batchId + " chunk " + chunk.chunkIndex() + " crashed: " + e.getMessage());
+      e.printStackTrace();
+      if (leaseLost.get()) {
+        System.err.println("[BATCH] Batch #" + batchId + " chunk " + chunk.chunkIndex() + " was taken over; left to its new owner.");
+      } else if (running && chunk.attempts() >= queue.getMaxAttempts()) {
+        batchProcessor.failBatch(batchId, "Batch failed after " + chunk.attempts() + " attempts: " + e.getMessage());
+        queue.fail(chunk, nodeId);
+        settleCredits(batchId);
+      } else {
+        queue.release(chunk, nodeId, running);
+      }
+    } finally {
+      renewal.cancel(false);
+      runningChunks.remove(chunk);
+    }
+  }
+
+  // The node that completes a batch's last chunk finalizes it, wherever the other chunks ran
+  private void finishChunk(BatchJobQueue.ClaimedChunk chunk) {
+    if (!queue.completeChunk(chunk, nodeId)) return;
+    batchProcessor.finishBatch(chunk.batchId(), chunk.email());
+    settleCredits(chunk.batchId());
+    archive(chunk.batchId());
+  }
+
+  private void heartbeat() {
+    try {
+      rateLimiter.setNodeCount(queue.heartbeat(nodeId, heartbeatSeconds * 3));
+    } catch (Exception e) {
+      System.err.println("[BATCH] Node heartbeat failed: " + e.getMessage());
+    }
+  }
+
+  // Requests stored while the batch ran (made on any node) become local stop flags; the controller sets them directly when it can
+  private void pollStopRequests() {
+    if (runningChunks.isEmpty()) return;
+    try {
+      queue.requestedActions(nodeId).forEach(progressRegistry::requestStop);
+    } catch (Exception e) {
+      System.err.println("[BATCH] Stop request poll failed: " + e.getMessage());
+    }
+  }
+
+  // Bills consumed credits and releases the rest of the batch's reservation (the periodic sweep retries failures)
+  private void settleCredits(int batchId) {
+    try {
+      lookupService.settleCredits(batchId);
+    } catch (Exception e) {
+      System.err.println("[BATCH] Credit settlement failed for #" + batchId + ": " + e.getMessage());
+    }
+  }
+
+  // Compressed copy for downloads; the periodic sweep archives any batch this misses
+  private void archive(int batchId) {
+    try {
+      archiveStore.archive(batchId);
+    } catch (Exception e) {
+      System.err.println("[BATCH] Archiving #" + batchId + " failed: " + e.getMessage());
+    }
+  }
+
+  // NODE_ID if set, otherwise host name + pid so two instances on one host never share leases
+  private static String resolveNodeId() {
+    String env = System.getenv("NODE_ID");
+    if (env != null && !env.isBlank()) return env.trim();
+    String host;
+    try {
+      host = InetAddress.getLocalHost().getHostName();
+    } catch (Exception e) {
+      host = System.getenv().getOrDefault("HOSTNAME", "node");
+    }
+    return host + ":" + ProcessHandle.current().pid();
+  }
+
+  private static Thread daemon(Runnable r, String name) {
+    Thread t = new Thread(r, name);
+    t.setDaemon(true);
+    return t;
+  }
+}
@@ -0,0 +1,57 @@
+package io.smartgeocode.service;
+
+import com.opencsv.CSVReader;
+import com.opencsv.exceptions.CsvValidationException;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+
+/**
+ * CsvUpload
+ * Streaming passes over an uploaded batch CSV that has been spilled to disk, one line in memory at a time.
+ * Empty lines and '#' comment lines are skipped; the first remaining line is the header.
+ * Read as UTF-8; bytes that are not (a cp1252 / Latin-1 export from Excel) become U+FFFD instead of
+ * failing the upload.
+ */
+public final class CsvUpload {
+
+  /** Receives each kept line in file order. */
+  public interface RowHandler {
+    void accept(String[] line) throws SQLException;
+  }
+
+  private CsvUpload() {
+  }
+
+  /** Number of kept lines, header included. */
+  public static int countRows(Path file) throws IOException, CsvValidationException {
+    int[] count = {0};
+    try {
+      forEachRow(file, line -> count[0]++);
+    } catch (SQLException e) {
+      throw new IllegalStateException(e); // not thrown by the counting handler
+    }
+    return count[0];
+  }
+
+  public static void forEachRow(Path file, RowHandler handler) throws IOException, CsvValidationException, SQLException {
+    try (CSVReader reader = new CSVReader(new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8))) {
+      String[] line;
+      while ((line = reader.readNext()) != null) {
+        // Skip empty lines, comments, or header-like repetition
+        if (line.length > 0 && !line[0].trim().startsWith("#") && !allColumnsEmpty(line)) {
+          handler.accept(line);
+        }
+      }
+    }
+  }
+
+  private static boolean allColumnsEmpty(String[] line) {
+    for (String s : line) if (s != null && !s.trim().isEmpty()) return false;
+    return true;
+  }
+}
@@ -0,0 +1,92 @@
+package io.smartgeocode.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * FairQueue
+ * Deficit round robin over per-tenant FIFO lanes (every item costs 1). A tenant with weight w is
+ * served up to w items per round, so a 50k-row batch and a 20-row batch waiting on the same provider
+ * interleave instead of queueing behind each other, and a premium lane gets a larger share.
+ * Not thread-safe: the owner (a GeocodeRateLimiter gate) guards it with its own lock.
+ */
+final class FairQueue<T> {
+
+  private static final class Lane<T> {
+    final String tenant;
+    final ArrayDeque<T> items = new ArrayDeque<>();
+    int weight;
+    int deficit;
+
+    Lane(String tenant) {
+      this.tenant = tenant;
+    }
+  }
+
+  private final Map<String, Lane<T>> lanes = new HashMap<>();
+  // Lanes with waiting items, in round order; the head is the lane currently being served
+  private final ArrayDeque<Lane<T>> active = new ArrayDeque<>();
+  private int size;
+
+  void add(String tenant, int weight, T item) {
+    Lane<T> lane = lanes.computeIfAbsent(tenant, Lane::new);
+    lane.weight = Math.max(1, weight);
+    if (lane.items.isEmpty()) active.add(lane);
+    lane.items.add(item);
+    size++;
+  }
+
+  /** Next item in DRR order, or null when empty. */
+  T poll() {
+    Lane<T> lane = active.peek();
+    if (lane == null) return null;
+    // A lane at the head with no credit left starts its next round
+    if (lane.deficit <= 0) lane.deficit += lane.weight;
+    T item = lane.items.poll();
+    lane.deficit--;
+    size--;
+    if (lane.items.isEmpty()) {
+      active.poll();
+      lanes.remove(lane.tenant);
+    } else if (lane.deficit <= 0) {
+      active.add(active.poll());
+    }
+    return item;
+  }
+
+  /** Removes every waiting item matching the filter (e.g. calls of a cancelled batch) and returns them. */
+  List<T> removeIf(Predicate<T> filter) {
+    List<T> removed = new ArrayList<>();
+    Iterator<Lane<T>> lanesLeft = active.iterator();
+    while (lanesLeft.hasNext()) {
+      Lane<T> lane = lanesLeft.next();
+      Iterator<T> items = lane.items.iterator();
+      while (items.hasNext()) {
+        T item = items.next();
+        if (filter.test(item)) {
+          items.remove();
+          removed.add(item);
+          size--;
+        }
+      }
+      if (lane.items.isEmpty()) {
+        lanesLeft.remove();
+        lanes.remove(lane.tenant);
+      }
+    }
+    return removed;
+  }
+
+  int size() {
+    return size;
+  }
+
+  int tenants() {
+    return active.size();
+  }
+}
@@ -0,0 +1,84 @@
+package io.smartgeocode.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GeocodeCache
+ * In-process L1 cache in front of the result store and the provider.
+ * Caffeine gives us frequency-aware (W-TinyLFU) eviction and lock-free reads.
+ * Successful results live for the regular TTL; "no result" answers are remembered
+ * for a shorter negative TTL so the batch waterfall stops re-asking known failures.
+ * Hit/miss/eviction counters are published as cache.* metrics tagged cache=geocode.l1.
+ */
+@Service
+public class GeocodeCache {
+
+  // Shared marker for a confirmed empty provider answer (never used for transport errors)
+  public static final Map<String, Object> NO_RESULT = Map.of("status", "error");
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Value("${geocode.cache.max-size:100000}")
+  private long maxSize;
+
+  @Value("${geocode.cache.ttl-minutes:1440}")
+  private long ttlMinutes;
+
+  @Value("${geocode.cache.negative-ttl-minutes:60}")
+  private long negativeTtlMinutes;
+
+  private Cache<String, Map<String, Object>> cache;
+
+  @PostConstruct
+  public void init() {
+    long positiveNanos = TimeUnit.MINUTES.toNanos(ttlMinutes);
+    long negativeNanos = TimeUnit.MINUTES.toNanos(negativeTtlMinutes);
+    cache = Caffeine.newBuilder()
+        .maximumSize(maxSize)
+        .expireAfter(new Expiry<String, Map<String, Object>>() {
+          @Override
+          public long expireAfterCreate(String key, Map<String, Object> value, long currentTime) {
+            return "success".equals(value.get("status")) ? positiveNanos : negativeNanos;
+          }
+
+          @Override
+          public long expireAfterUpdate(String key, Map<String, Object> value, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, value, currentTime);
+          }
+
+          @Override
+          public long expireAfterRead(String key, Map<String, Object> value, long currentTime, long currentDuration) {
+            return currentDuration;
+          }
+        })
+        .recordStats()
+        .build();
+    CaffeineCacheMetrics.monitor(meterRegistry, cache, "geocode.l1");
+    System.out.println("Geocode L1 Cache Ready (max " + maxSize + " entries, negative TTL " + negativeTtlMinutes + " min).");
+  }
+
+  /** Returns the cached result (success or NO_RESULT), or null on miss. */
+  public Map<String, Object> get(String query) {
+    return cache.getIfPresent(GeocodeResultStore.normalizeKey(query));
+  }
+
+  public void put(String query, Map<String, Object> result) {
+    cache.put(GeocodeResultStore.normalizeKey(query), result);
+  }
+
+  public void putNoResult(String query) {
+    cache.put(GeocodeResultStore.normalizeKey(query), NO_RESULT);
+  }
+}
@@ -0,0 +1,222 @@
+package io.smartgeocode.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.MultiGauge;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.smartgeocode.provider.GeocodeProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * GeocodeRateLimiter
+ * Node-wide limiter for outbound provider calls. Every real provider request (single lookups
+ * and all batch workers) takes a permit here; cache hits and skipped rows never do,
+ * so concurrent batches share exactly the allowed aggregate rate.
+ * Each provider gets its own token bucket and concurrency cap, as declared by the provider.
+ * Permits are handed out as futures so the batch pipeline can wait without parking a thread.
+ * When callers have to wait, permits go out in deficit-round-robin order across tenants (one lane
+ * per batch owner, weighted by tier, plus an interactive lane for /api/geocode), not first come first served.
+ * A provider's rate is the budget of the whole cluster: each node runs at rate / live nodes
+ * (setNodeCount, fed by the worker heartbeat), so adding nodes adds batch workers without
+ * exceeding the provider's limit. Concurrency caps stay per node.
+ */
+@Service
+public class GeocodeRateLimiter {
+
+  private static final long SHARE_REFRESH_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Value("${batch.scheduler.weight.free:1}")
+  private int freeWeight;
+
+  @Value("${batch.scheduler.weight.premium:4}")
+  private int premiumWeight;
+
+  @Value("${batch.scheduler.weight.interactive:8}")
+  private int interactiveWeight;
+
+  private final ConcurrentHashMap<String, Gate> gates = new ConcurrentHashMap<>();
+  private volatile int nodeCount = 1;
+
+  /**
+   * Scheduling lane for provider permits: one per batch owner, weighted by tier.
+   * cancelled reports whether the caller (a cancelled or paused batch) no longer wants its permits.
+   */
+  public record Tenant(String id, int weight, BooleanSupplier cancelled) {
+  }
+
+  private record Waiter(String tenant, CompletableFuture<Void> slot, BooleanSupplier cancelled) {
+  }
+
+  private class Gate {
+    final double clusterRate;
+    final TokenBucket bucket;
+    final int maxInFlight;
+    final FairQueue<Waiter> waiters = new FairQueue<>();
+    final Timer waitTimer;
+    final MultiGauge shareGauge;
+    final Map<String, Long> grants = new HashMap<>();
+    long sharesRefreshedAt = System.nanoTime();
+    int inFlight = 0;
+
+    Gate(GeocodeProvider provider) {
+      clusterRate = provider.requestsPerSecond();
+      bucket = new TokenBucket(nodeRate(), 1);
+      maxInFlight = Math.max(1, provider.maxConcurrency());
+      waitTimer = Timer.builder("geocode.ratelimit.wait")
+          .description("Time provider calls spent waiting for a rate-limit permit")
+          .tag("provider", provider.name())
+          .register(meterRegistry);
+      Gauge.builder("geocode.scheduler.waiting", this, g -> g.waiting())
+          .description("Provider calls queued for a permit")
+          .tag("provider", provider.name())
+          .register(meterRegistry);
+      Gauge.builder("geocode.scheduler.tenants", this, g -> g.waitingTenants())
+          .description("Tenants with provider calls queued for a permit")
+          .tag("provider", provider.name())
+          .register(meterRegistry);
+      shareGauge = MultiGauge.builder("geocode.scheduler.share")
+          .description("Share of provider permits granted per tenant over the last interval")
+          .tag("provider", provider.name())
+          .register(meterRegistry);
+    }
+
+    CompletableFuture<Void> acquire(Tenant tenant) {
+      long start = System.nanoTime();
+      CompletableFuture<Void> slot = new CompletableFuture<>();
+      synchronized (this) {
+        if (inFlight < maxInFlight) {
+          inFlight++;
+          granted(tenant.id());
+          slot.complete(null);
+        } else {
+          waiters.add(tenant.id(), tenant.weight(), new Waiter(tenant.id(), slot, tenant.cancelled()));
+        }
+      }
+      // Concurrency slot first, then a rate token; the token wait runs on a timer, not a parked thread
+      return slot.thenCompose(v -> {
+        long waitNanos = bucket.reserve();
+        return waitNanos <= 0
+            ? CompletableFuture.<Void>completedFuture(null)
+            : CompletableFuture.runAsync(() -> { }, CompletableFuture.delayedExecutor(waitNanos, TimeUnit.NANOSECONDS));
+      }).whenComplete((v, ex) -> waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+    }
+
+    void release() {
+      Waiter next;
+      List<Waiter> dropped = new ArrayList<>();
+      synchronized (this) {
+        // Waiters of cancelled batches are skipped; the slot goes to the next live caller
+        while ((next = waiters.poll()) != null && next.cancelled().getAsBoolean()) dropped.add(next);
+        if (next == null) {
+          inFlight--;
+        } else {
+          granted(next.tenant());
+        }
+      }
+      fail(dropped);
+      if (next == null) return;
+      // Hand the slot straight to the next waiter; if it gave up meanwhile, pass it on
+      if (!next.slot().complete(null)) release();
+    }
+
+    void purgeCancelled() {
+      List<Waiter> dropped;
+      synchronized (this) {
+        dropped = waiters.removeIf(w -> w.cancelled().getAsBoolean());
+      }
+      fail(dropped);
+    }
+
+    // This node's share; an unlimited provider (rate 0) stays unlimited
+    double nodeRate() {
+      return clusterRate <= 0 ? clusterRate : clusterRate / nodeCount;
+    }
+
+    synchronized int waiting() {
+      return waiters.size();
+    }
+
+    synchronized int waitingTenants() {
+      return waiters.tenants();
+    }
+
+    // Caller holds the lock
+    private void granted(String tenant) {
+      grants.merge(tenant, 1L, Long::sum);
+      long now = System.nanoTime();
+      if (now - sharesRefreshedAt < SHARE_REFRESH_NANOS) return;
+      long total = 0;
+      for (long n : grants.values()) total += n;
+      List<MultiGauge.Row<?>> rows = new ArrayList<>(grants.size());
+      for (Map.Entry<String, Long> e : grants.entrySet()) {
+        rows.add(MultiGauge.Row.of(Tags.of("tenant", e.getKey()), (double) e.getValue() / total));
+      }
+      shareGauge.register(rows, true);
+      grants.clear();
+      sharesRefreshedAt = now;
+    }
+  }
+
+  /** Lane for a batch owned by userId; tier as reported by LookupService.getTier. */
+  public Tenant batchTenant(Long userId, String tier, BooleanSupplier cancelled) {
+    return new Tenant("user:" + userId, "premium".equals(tier) ? premiumWeight : freeWeight, cancelled);
+  }
+
+  /** Lane shared by all single /api/geocode lookups (a user is waiting on the response). */
+  public Tenant interactiveTenant() {
+    return new Tenant("interactive", interactiveWeight, () -> false);
+  }
+
+  /**
+   * Drops every queued call whose tenant has been cancelled, so the capacity goes to other batches at once.
+   * Their permit futures fail with CancellationException; no token was taken for them.
+   */
+  public void purgeCancelled() {
+    for (Gate gate : gates.values()) gate.purgeCancelled();
+  }
+
+  /** Live nodes sharing the provider budgets (from the worker heartbeat); rates are rescaled at once. */
+  public void setNodeCount(int nodes) {
+    int n = Math.max(1, nodes);
+    if (n == nodeCount) return;
+    nodeCount = n;
+    for (Gate gate : gates.values()) gate.bucket.setRate(gate.nodeRate());
+    System.out.println("Provider rate budget split across " + n + " node(s).");
+  }
+
+  private static void fail(List<Waiter> dropped) {
+    for (Waiter w : dropped) w.slot().completeExceptionally(new CancellationException("batch stopped"));
+  }
+
+  /**
+   * Completes once the caller may issue one request to the provider.
+   * Must be paired with release() once the request has finished.
+   */
+  public CompletableFuture<Void> acquireAsync(GeocodeProvider provider, Tenant tenant) {
+    return gate(provider).acquire(tenant);
+  }
+
+  public void release(GeocodeProvider provider) {
+    gate(provider).release();
+  }
+
+  private Gate gate(GeocodeProvider provider) {
+    return gates.computeIfAbsent(provider.name(), name -> new Gate(provider));
+  }
+}
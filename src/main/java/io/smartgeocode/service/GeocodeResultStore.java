@@ -0,0 +1,98 @@
+package io.smartgeocode.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * GeocodeResultStore
+ * Durable (Postgres) store of successful geocode results, keyed by a normalized query string.
+ * Consulted before any provider HTTP call so repeat addresses never hit Nominatim twice within the TTL.
+ */
+@Service
+public class GeocodeResultStore {
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @Value("${geocode.store.ttl-days:180}")
+  private int ttlDays;
+
+  @PostConstruct
+  public void initTable() {
+    try {
+      jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS geocode_results (" +
+          "query_key VARCHAR(1000) PRIMARY KEY, " +
+          "query TEXT NOT NULL, " +
+          "lat VARCHAR(32), " +
+          "lng VARCHAR(32), " +
+          "formatted_address TEXT, " +
+          "provider VARCHAR(50) NOT NULL, " +
+          "match_class VARCHAR(50), " +
+          "match_type VARCHAR(50), " +
+          "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+          "expires_at TIMESTAMP NOT NULL)");
+      jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_geocode_results_expires ON geocode_results (expires_at)");
+      System.out.println("Geocode Result Store Ready (TTL " + ttlDays + " days).");
+    } catch (Exception e) {
+      System.err.println("Geocode Result Store Init Failed: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Returns the stored result for the query, or null if absent or expired.
+   * Never throws: a broken store must not break geocoding.
+   */
+  public Map<String, Object> find(String query) {
+    try {
+      List<Map<String, Object>> rows = jdbcTemplate.query(
+          "SELECT lat, lng, formatted_address FROM geocode_results WHERE query_key = ? AND expires_at > CURRENT_TIMESTAMP",
+          (rs, i) -> Map.<String, Object>of(
+              "status", "success",
+              "lat", rs.getString("lat"),
+              "lng", rs.getString("lng"),
+              "formatted_address", rs.getString("formatted_address")),
+          normalizeKey(query));
+      return rows.isEmpty() ? null : rows.get(0);
+    } catch (Exception e) {
+      System.err.println("Geocode Store Read Failed: " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Upserts a successful lookup. Expired rows are simply overwritten on the next save.
+   * Callers only save answers from remote providers (the key does not include the provider).
+   */
+  public void save(String query, Map<String, Object> result, String provider, String matchClass, String matchType) {
+    if (!"success".equals(result.get("status"))) return;
+    try {
+      Timestamp expiresAt = Timestamp.from(Instant.now().plus(ttlDays, ChronoUnit.DAYS));
+      jdbcTemplate.update(
+          "INSERT INTO geocode_results (query_key, query, lat, lng, formatted_address, provider, match_class, match_type, expires_at) " +
+          "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?) " +
+          "ON CONFLICT (query_key) DO UPDATE SET query = EXCLUDED.query, lat = EXCLUDED.lat, lng = EXCLUDED.lng, " +
+          "formatted_address = EXCLUDED.formatted_address, provider = EXCLUDED.provider, match_class = EXCLUDED.match_class, " +
+          "match_type = EXCLUDED.match_type, created_at = CURRENT_TIMESTAMP, expires_at = EXCLUDED.expires_at",
+          normalizeKey(query), query,
+          String.valueOf(result.get("lat")), String.valueOf(result.get("lng")),
+          (String) result.get("formatted_address"),
+          provider, matchClass, matchType, expiresAt);
+    } catch (Exception e) {
+      System.err.println("Geocode Store Write Failed: " + e.getMessage());
+    }
+  }
+
+  // Canonical address form (see AddressNormalizer) so differently spelled queries share a row
+  public static String normalizeKey(String query) {
+    return AddressNormalizer.normalize(query);
+  }
+}
@@ -0,0 +1,171 @@
+package io.smartgeocode.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.smartgeocode.provider.GeocodeMatch;
+import io.smartgeocode.provider.GeocodeProvider;
+import io.smartgeocode.provider.GeocodeProviderRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * GeocodeService
+ * Single entry point for forward geocoding:
+ * L1 Cache -> (single-flight) Result Store -> rate/concurrency-limited provider call.
+ * Results are plain maps with status / lat / lng / formatted_address, as returned by /api/geocode.
+ * The pipeline is asynchronous end to end (store I/O on a small pool, provider calls via
+ * geocodeAsync) so the batch engine can keep several rows in flight; geocode() blocks on it.
+ */
+@Service
+public class GeocodeService {
+
+  private static final Map<String, Object> ERROR = Map.of("status", "error");
+  // Permit wait dropped because the caller's batch was cancelled or paused
+  private static final Map<String, Object> CANCELLED = Map.of("status", "cancelled");
+
+  @Autowired
+  private GeocodeProviderRegistry providers;
+
+  @Autowired
+  private GeocodeResultStore resultStore;
+
+  @Autowired
+  private GeocodeCache geocodeCache;
+
+  @Autowired
+  private GeocodeRateLimiter rateLimiter;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  // Result Store reads/writes are blocking JDBC; keep them off the callers' threads
+  @Value("${geocode.store.io-threads:4}")
+  private int storeThreads;
+
+  private ExecutorService storeExecutor;
+
+  // Request Coalescing: identical concurrent queries issue one outbound call
+  private final SingleFlight<String, Map<String, Object>> inFlightLookups = new SingleFlight<>();
+
+  @PostConstruct
+  public void init() {
+    storeExecutor = Executors.newFixedThreadPool(storeThreads, r -> {
+      Thread t = new Thread(r, "geocode-store");
+      t.setDaemon(true);
+      return t;
+    });
+    Gauge.builder("geocode.lookups.inflight", inFlightLookups, SingleFlight::inFlightCount)
+        .description("Distinct queries with a store read or provider call in flight (concurrent callers share one)")
+        .register(meterRegistry);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    storeExecutor.shutdown();
+  }
+
+  public Map<String, Object> geocode(String query) {
+    try {
+      return geocodeAsync(query).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      System.err.println("Geocode Error: " + e.getCause().getMessage());
+    }
+    return ERROR;
+  }
+
+  /** Interactive lookup (single /api/geocode request). */
+  public CompletableFuture<Map<String, Object>> geocodeAsync(String query) {
+    return geocodeAsync(query, rateLimiter.interactiveTenant());
+  }
+
+  /**
+   * Never completes exceptionally: failures come back as a status=error result.
+   * The tenant decides the caller's lane when provider permits are contended.
+   */
+  public CompletableFuture<Map<String, Object>> geocodeAsync(String query, GeocodeRateLimiter.Tenant tenant) {
+    if (query == null || query.trim().isEmpty()) return CompletableFuture.completedFuture(Map.of("status", "skipped"));
+
+    Map<String, Object> cached = geocodeCache.get(query);
+    if (cached != null) return CompletableFuture.completedFuture(cached);
+
+    // Concurrent callers for the same query share a single store read + provider call
+    return inFlightLookups.execute(GeocodeResultStore.normalizeKey(query), () -> lookupUncached(query, tenant))
+        .exceptionally(e -> {
+          System.err.println("Geocode Error: " + e.getMessage());
+          return ERROR;
+        })
+        // Joined a flight whose leader was stopped: still wanted here, so look it up again
+        .thenCompose(result -> result == CANCELLED && !tenant.cancelled().getAsBoolean()
+            ? geocodeAsync(query, tenant)
+            : CompletableFuture.completedFuture(result));
+  }
+
+  // Result Store -> Provider (only ever run by the single-flight leader)
+  private CompletableFuture<Map<String, Object>> lookupUncached(String query, GeocodeRateLimiter.Tenant tenant) {
+    // Re-check: a previous flight may have filled the cache after our first miss
+    Map<String, Object> cached = geocodeCache.get(query);
+    if (cached != null) return CompletableFuture.completedFuture(cached);
+
+    return CompletableFuture.supplyAsync(() -> resultStore.find(query), storeExecutor)
+        .thenCompose(stored -> {
+          if (stored != null) {
+            geocodeCache.put(query, stored);
+            return CompletableFuture.completedFuture(stored);
+          }
+          return callProvider(query, providers.active(), tenant);
+        });
+  }
+
+  private CompletableFuture<Map<String, Object>> callProvider(String query, GeocodeProvider provider, GeocodeRateLimiter.Tenant tenant) {
+    // Only actual outbound calls consume a permit
+    return rateLimiter.acquireAsync(provider, tenant)
+        .thenCompose(permit -> {
+          CompletableFuture<Optional<GeocodeMatch>> call;
+          try {
+            call = provider.geocodeAsync(query);
+          } catch (RuntimeException e) {
+            call = CompletableFuture.failedFuture(e);
+          }
+          return call.whenComplete((match, error) -> rateLimiter.release(provider));
+        })
+        .handle((match, error) -> {
+          Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+          if (cause instanceof CancellationException) return CANCELLED;
+          if (error != null) {
+            System.err.println("Geocode API Error (" + provider.name() + "): " + error.getMessage());
+            return ERROR;
+          }
+          if (match.isEmpty()) {
+            // Provider answered but found nothing: remember briefly so the waterfall skips it
+            geocodeCache.putNoResult(query);
+            return GeocodeCache.NO_RESULT;
+          }
+          GeocodeMatch m = match.get();
+          Map<String, Object> result = Map.of(
+              "status", "success",
+              "lat", m.lat(),
+              "lng", m.lng(),
+              "formatted_address", m.formattedAddress());
+          geocodeCache.put(query, result);
+          // The store is shared by every provider and node: only real backend answers go there, never in-process (stub) ones
+          if (provider.capabilities().contains(GeocodeProvider.Capability.REMOTE)) {
+            storeExecutor.execute(() -> resultStore.save(query, result, provider.name(), m.matchClass(), m.matchType()));
+          }
+          return result;
+        });
+  }
+}
@@ -0,0 +1,292 @@
+package io.smartgeocode.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * LocalGazetteer
+ * Offline city resolver for the waterfall's city fallback, so "Austin, TX, USA" never costs a provider call.
+ * Loads a GeoNames cities extract (cities500/1000/5000/15000.txt or allCountries.txt, tab separated)
+ * through a read-only memory mapping. Only coordinates, populations, line offsets and an index into the
+ * (few thousand) distinct admin1 regions are kept per place on heap (primitive arrays, keyed by 64-bit
+ * hashes of "city|admin1|country"); names are read back from the mapping when a result is formatted.
+ * Alternate names are indexed only when they fold to ASCII (exonyms such as "Munich"), not the
+ * translations into other scripts that make up most of that column.
+ * Optional admin1CodesASCII.txt lets state names ("Texas") resolve as well as codes ("TX").
+ */
+@Service
+public class LocalGazetteer {
+
+  @Value("${geocode.gazetteer.file:}")
+  private String gazetteerFile;
+
+  @Value("${geocode.gazetteer.admin1-file:}")
+  private String admin1File;
+
+  // A state without a country column ("Springfield, IL") is read in this country, like zips in PostalCodeIndex
+  @Value("${geocode.gazetteer.default-country:US}")
+  private String defaultCountry;
+
+  private MappedByteBuffer data;
+
+  // Sorted by key hash; entry i points at place placeIndex[i]
+  private long[] keyHashes = new long[0];
+  private int[] placeIndex = new int[0];
+
+  // Per place
+  private float[] lats = new float[0];
+  private float[] lngs = new float[0];
+  private long[] populations = new long[0];
+  private int[] nameOffsets = new int[0];
+  private int[] admin1Index = new int[0];
+
+  // Distinct "US.TX" keys, indexed by admin1Index
+  private String[] admin1Keys = new String[0];
+
+  // "US|texas" -> "TX" and "US.TX" -> "Texas"
+  private final Map<String, String> admin1Codes = new HashMap<>();
+  private final Map<String, String> admin1Names = new HashMap<>();
+
+  private int placeCount = 0;
+
+  @PostConstruct
+  public void load() {
+    if (gazetteerFile == null || gazetteerFile.isBlank()) {
+      System.out.println("Local Gazetteer Disabled (no GEOCODE_GAZETTEER_FILE).");
+      return;
+    }
+    long start = System.currentTimeMillis();
+    try {
+      if (admin1File != null && !admin1File.isBlank()) loadAdmin1(Path.of(admin1File));
+      loadPlaces(Path.of(gazetteerFile));
+      System.out.println("Local Gazetteer Ready: " + placeCount + " places, " + keyHashes.length + " keys in "
+          + (System.currentTimeMillis() - start) + "ms.");
+    } catch (Exception e) {
+      System.err.println("Local Gazetteer Load Failed: " + e.getMessage());
+      data = null;
+      placeCount = 0;
+      keyHashes = new long[0];
+      placeIndex = new int[0];
+    }
+  }
+
+  public boolean isEnabled() {
+    return placeCount > 0;
+  }
+
+  /**
+   * Resolves a city (optionally qualified by state and country) to its centroid.
+   * Returns a success result map, or null when the place is unknown locally. A state that cannot be
+   * matched, or a country we do not know, also returns null: the provider gets the row rather than a
+   * same-named place somewhere else.
+   */
+  public Map<String, Object> resolve(String city, String state, String country) {
+    if (!isEnabled()) return null;
+    String name = PlaceNames.fold(city);
+    if (name.isEmpty()) return null;
+
+    boolean hasState = state != null && !state.isBlank();
+    String cc = PlaceNames.countryCode(country);
+    if (cc == null) {
+      if (country != null && !country.isBlank()) return null; // Named a country we don't know: don't guess
+      if (hasState) cc = defaultCountry;
+    }
+    int place;
+    if (cc == null) {
+      // City only: accept the globally most populous match
+      place = find(name + "||");
+    } else if (!hasState) {
+      place = find(name + "||" + cc);
+    } else {
+      // State given: never fall back to a same-named city in another state (or anywhere in the country)
+      String admin1 = admin1Codes.get(cc + "|" + PlaceNames.fold(state));
+      // No admin1 names loaded (or unknown name): the input may already be the code, e.g. "TX"
+      if (admin1 == null) admin1 = state.trim().toUpperCase(Locale.ROOT);
+      place = find(name + "|" + admin1 + "|" + cc);
+    }
+    if (place < 0) return null;
+
+    return Map.of(
+        "status", "success",
+        "lat", String.valueOf(lats[place]),
+        "lng", String.valueOf(lngs[place]),
+        "formatted_address", formatPlace(place));
+  }
+
+  private int find(String key) {
+    long hash = PlaceNames.hash64(key);
+    int i = Arrays.binarySearch(keyHashes, hash);
+    if (i < 0) return -1;
+    // Several places can share a key: walk the run of equal hashes and keep the most populous
+    while (i > 0 && keyHashes[i - 1] == hash) i--;
+    int best = -1;
+    for (; i < keyHashes.length && keyHashes[i] == hash; i++) {
+      int p = placeIndex[i];
+      if (best < 0 || populations[p] > populations[best]) best = p;
+    }
+    return best;
+  }
+
+  private String formatPlace(int place) {
+    StringBuilder out = new StringBuilder(readField(nameOffsets[place]));
+    String adminKey = admin1Keys[admin1Index[place]];
+    String cc = adminKey.substring(0, adminKey.indexOf('.'));
+    String adminName = admin1Names.get(adminKey);
+    String adminCode = adminKey.substring(adminKey.indexOf('.') + 1);
+    if (adminName != null) {
+      out.append(", ").append(adminName);
+    } else if (!adminCode.isEmpty()) {
+      out.append(", ").append(adminCode);
+    }
+    out.append(", ").append(PlaceNames.countryName(cc));
+    return out.toString();
+  }
+
+  // Reads a tab-terminated UTF-8 field straight from the mapping
+  private String readField(int offset) {
+    int end = offset;
+    while (end < data.limit() && data.get(end) != '\t' && data.get(end) != '\n') end++;
+    byte[] bytes = new byte[end - offset];
+    data.get(offset, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private void loadAdmin1(Path path) throws IOException {
+    // Format: "US.TX<TAB>Texas<TAB>Texas<TAB>4736286"
+    try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] cols = line.split("\t");
+        if (cols.length < 3 || cols[0].indexOf('.') < 0) continue;
+        String cc = cols[0].substring(0, cols[0].indexOf('.'));
+        String code = cols[0].substring(cols[0].indexOf('.') + 1);
+        admin1Names.put(cols[0], cols[1]);
+        admin1Codes.put(cc + "|" + PlaceNames.fold(cols[1]), code);
+        admin1Codes.put(cc + "|" + PlaceNames.fold(cols[2]), code);
+        admin1Codes.put(cc + "|" + PlaceNames.fold(code), code);
+      }
+    }
+  }
+
+  private void loadPlaces(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("Gazetteer file larger than 2GB; use a cities extract instead of allCountries");
+      }
+      data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    int[] tabs = new int[19];
+    long[] hashes = new long[1 << 16];
+    int[] index = new int[1 << 16];
+    int keys = 0;
+    Map<String, Integer> regions = new HashMap<>();
+    Set<String> placeNames = new HashSet<>();
+    int lineStart = 0;
+    int limit = data.limit();
+
+    while (lineStart < limit) {
+      // Split the line into its GeoNames columns without decoding it
+      int fields = 0;
+      int pos = lineStart;
+      while (pos < limit && data.get(pos) != '\n') {
+        if (data.get(pos) == '\t' && fields < tabs.length) tabs[fields++] = pos;
+        pos++;
+      }
+      int lineEnd = pos;
+      int nextLine = pos + 1;
+
+      // Columns: 0 id, 1 name, 2 asciiname, 3 alternatenames, 4 lat, 5 lng, 6 feature class,
+      // 8 country code, 10 admin1 code, 14 population. Cities are feature class "P".
+      if (fields >= 14 && data.get(tabs[5] + 1) == 'P') {
+        int place = placeCount;
+        ensurePlaceCapacity(place + 1);
+        nameOffsets[place] = tabs[0] + 1;
+        lats[place] = Float.parseFloat(slice(tabs[3] + 1, tabs[4]));
+        lngs[place] = Float.parseFloat(slice(tabs[4] + 1, tabs[5]));
+        String cc = slice(tabs[7] + 1, tabs[8]);
+        String admin1 = slice(tabs[9] + 1, tabs[10]);
+        String pop = slice(tabs[13] + 1, fields > 14 ? tabs[14] : lineEnd);
+        populations[place] = pop.isEmpty() ? 0 : Long.parseLong(pop.trim());
+        admin1Index[place] = regions.computeIfAbsent(cc + "." + admin1, k -> regions.size());
+        placeCount++;
+
+        placeNames.clear();
+        placeNames.add(PlaceNames.fold(slice(tabs[0] + 1, tabs[1])));
+        placeNames.add(PlaceNames.fold(slice(tabs[1] + 1, tabs[2])));
+        for (String alternate : slice(tabs[2] + 1, tabs[3]).split(",")) {
+          String name = PlaceNames.fold(alternate);
+          if (isAscii(name)) placeNames.add(name);
+        }
+        for (String name : placeNames) {
+          if (name.isEmpty()) continue;
+          if (keys + 3 > hashes.length) {
+            hashes = Arrays.copyOf(hashes, hashes.length * 2);
+            index = Arrays.copyOf(index, index.length * 2);
+          }
+          hashes[keys] = PlaceNames.hash64(name + "|" + admin1 + "|" + cc);
+          index[keys++] = place;
+          hashes[keys] = PlaceNames.hash64(name + "||" + cc);
+          index[keys++] = place;
+          hashes[keys] = PlaceNames.hash64(name + "||");
+          index[keys++] = place;
+        }
+      }
+      lineStart = nextLine;
+    }
+
+    sortKeys(hashes, index, keys);
+    admin1Keys = new String[regions.size()];
+    regions.forEach((key, i) -> admin1Keys[i] = key);
+  }
+
+  private static boolean isAscii(String value) {
+    for (int i = 0; i < value.length(); i++) {
+      if (value.charAt(i) > 0x7f) return false;
+    }
+    return true;
+  }
+
+  private String slice(int from, int to) {
+    byte[] bytes = new byte[Math.max(0, to - from)];
+    data.get(from, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private void ensurePlaceCapacity(int needed) {
+    if (needed <= lats.length) return;
+    int size = Math.max(needed, Math.max(1024, lats.length * 2));
+    lats = Arrays.copyOf(lats, size);
+    lngs = Arrays.copyOf(lngs, size);
+    populations = Arrays.copyOf(populations, size);
+    nameOffsets = Arrays.copyOf(nameOffsets, size);
+    admin1Index = Arrays.copyOf(admin1Index, size);
+  }
+
+  // Sorts (hash, place) pairs by hash so lookups are a binary search
+  private void sortKeys(long[] hashes, int[] index, int count) {
+    int[] order = PlaceNames.sortedOrder(hashes, count);
+    keyHashes = new long[count];
+    placeIndex = new int[count];
+    for (int i = 0; i < count; i++) {
+      keyHashes[i] = hashes[order[i]];
+      placeIndex[i] = index[order[i]];
+    }
+  }
+}
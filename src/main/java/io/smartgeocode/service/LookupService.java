@@ -5,8 +5,11 @@ import io.smartgeocode.repository.UserLookupsRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import jakarta.annotation.PostConstruct;
 import java.time.YearMonth;
+import java.util.List;
 import java.util.Map;
 
 @Service
@@ -18,27 +21,140 @@ public class LookupService {
   @Autowired
   private JdbcTemplate jdbcTemplate; // NEW: To query users table
 
-  public void incrementLookup(Long userId, int numLookups) {
-    String currentMonth = YearMonth.now().toString();
-    UserLookups record = lookupRepo.findByUserIdAndMonthYear(userId, currentMonth);
-    if (record == null) {
-      record = new UserLookups();
-      record.setUserId(userId);
-      record.setMonthYear(currentMonth);
-      record.setTier(getTierFromDb(userId)); // NEW: Fetch actual tier
-      record.setLookupCount(0);
+  @Autowired
+  private TransactionTemplate transactionTemplate;
+
+  // Credit reservations: a batch reserves credits in chunks (granted), records successful rows against
+  // them with each result chunk (consumed) and is settled once at the end - consumed moves into
+  // user_lookups, the unused remainder is released. Open (unsettled) grants count as used for limit checks.
+  @PostConstruct
+  public void initReservations() {
+    try {
+      jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS credit_reservations (" +
+          "batch_id INTEGER PRIMARY KEY, " +
+          "user_id INTEGER NOT NULL, " +
+          "month_year VARCHAR(7) NOT NULL, " +
+          "granted INTEGER NOT NULL DEFAULT 0, " +
+          "consumed INTEGER NOT NULL DEFAULT 0, " +
+          "settled BOOLEAN NOT NULL DEFAULT FALSE, " +
+          "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+          "settled_at TIMESTAMP)");
+      jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_credit_reservations_open ON credit_reservations (user_id, month_year) WHERE NOT settled");
+    } catch (Exception e) {
+      System.err.println("Credit Reservations Init Failed: " + e.getMessage());
+    }
+    // One usage row per user and month, so addLookups can upsert (Hibernate creates the table without it).
+    // Rows duplicated by concurrent first-of-month inserts before the index existed are merged once.
+    try {
+      transactionTemplate.executeWithoutResult(tx -> {
+        if (jdbcTemplate.queryForObject("SELECT to_regclass('uq_user_lookups_user_month') IS NOT NULL", Boolean.class)) return;
+        jdbcTemplate.execute("LOCK TABLE user_lookups IN SHARE ROW EXCLUSIVE MODE");
+        jdbcTemplate.update(
+            "UPDATE user_lookups u SET lookup_count = d.total FROM (SELECT MIN(id) AS keep, SUM(lookup_count) AS total " +
+            "FROM user_lookups GROUP BY user_id, month_year HAVING COUNT(*) > 1) d WHERE u.id = d.keep");
+        jdbcTemplate.update(
+            "DELETE FROM user_lookups u USING user_lookups k " +
+            "WHERE k.user_id = u.user_id AND k.month_year = u.month_year AND k.id < u.id");
+        jdbcTemplate.execute("CREATE UNIQUE INDEX uq_user_lookups_user_month ON user_lookups (user_id, month_year)");
+      });
+    } catch (Exception e) {
+      System.err.println("User Lookups Index Init Failed: " + e.getMessage());
     }
-    record.setLookupCount(record.getLookupCount() + numLookups);
-    lookupRepo.save(record);
+  }
+
+  public void incrementLookup(Long userId, int numLookups) {
+    addLookups(userId, YearMonth.now().toString(), numLookups);
+  }
+
+  // Atomic add to a month's usage, shared by single lookups and batch settlement (no read-modify-write to lose)
+  private void addLookups(Long userId, String month, int count) {
+    jdbcTemplate.update(
+        "INSERT INTO user_lookups (user_id, month_year, tier, lookup_count) " +
+        "SELECT ?, ?, COALESCE((SELECT subscription_status FROM users WHERE id = ?), 'free'), ? " +
+        "ON CONFLICT (user_id, month_year) DO UPDATE SET lookup_count = user_lookups.lookup_count + EXCLUDED.lookup_count",
+        userId, month, userId, count);
   }
 
   public boolean canPerformLookup(Long userId, int requested) {
     String currentMonth = YearMonth.now().toString();
     UserLookups record = lookupRepo.findByUserIdAndMonthYear(userId, currentMonth);
     int used = (record != null) ? record.getLookupCount() : 0;
-    String tier = (record != null) ? record.getTier() : getTierFromDb(userId); // NEW: Fetch if missing
+    String tier = (record != null) ? record.getTier() : getTier(userId); // NEW: Fetch if missing
     int limit = getLimitByTier(tier);
-    return (used + requested) <= limit;
+    return (used + openGranted(userId, currentMonth) + requested) <= limit;
+  }
+
+  /**
+   * Reserves up to `requested` credits for a batch, atomically against the user's limit (other batches'
+   * open reservations included). Returns the number granted, 0 when the limit is reached.
+   * A batch keeps billing to the month its reservation was opened in; a resumed batch whose
+   * reservation was settled at pause opens a fresh one.
+   */
+  public int reserveCredits(Long userId, int batchId, int requested) {
+    if (requested <= 0) return 0;
+    Integer granted = transactionTemplate.execute(tx -> {
+      // Per-user lock: concurrent reservations of one user serialize here and cannot oversubscribe
+      jdbcTemplate.queryForList("SELECT id FROM users WHERE id = ? FOR UPDATE", userId);
+      List<String> opened = jdbcTemplate.queryForList(
+          "SELECT month_year FROM credit_reservations WHERE batch_id = ? AND NOT settled", String.class, batchId);
+      String month = opened.isEmpty() ? YearMonth.now().toString() : opened.get(0);
+      UserLookups record = lookupRepo.findByUserIdAndMonthYear(userId, month);
+      int used = (record != null) ? record.getLookupCount() : 0;
+      String tier = (record != null) ? record.getTier() : getTier(userId);
+      int available = getLimitByTier(tier) - used - openGranted(userId, month);
+      int grant = Math.max(0, Math.min(requested, available));
+      if (grant > 0) {
+        jdbcTemplate.update(
+            "INSERT INTO credit_reservations (batch_id, user_id, month_year, granted) VALUES (?, ?, ?, ?) " +
+            "ON CONFLICT (batch_id) DO UPDATE SET " +
+            "granted = CASE WHEN credit_reservations.settled THEN EXCLUDED.granted ELSE credit_reservations.granted + EXCLUDED.granted END, " +
+            "consumed = CASE WHEN credit_reservations.settled THEN 0 ELSE credit_reservations.consumed END, " +
+            "month_year = EXCLUDED.month_year, settled = FALSE, settled_at = NULL",
+            batchId, userId, month, grant);
+      }
+      return grant;
+    });
+    return granted != null ? granted : 0;
+  }
+
+  /**
+   * Gives back credits a batch reserved but will not use (a chunk run ended holding them), so other
+   * chunks and batches of the user can reserve them before the batch is settled.
+   */
+  public void returnCredits(int batchId, int credits) {
+    if (credits <= 0) return;
+    jdbcTemplate.update(
+        "UPDATE credit_reservations SET granted = GREATEST(consumed, granted - ?) WHERE batch_id = ? AND NOT settled",
+        credits, batchId);
+  }
+
+  /** Bills what the batch consumed and releases the rest of its reservation. Safe to call more than once. */
+  public void settleCredits(int batchId) {
+    transactionTemplate.executeWithoutResult(tx -> {
+      List<Map<String, Object>> open = jdbcTemplate.queryForList(
+          "SELECT user_id, month_year, consumed FROM credit_reservations WHERE batch_id = ? AND NOT settled FOR UPDATE", batchId);
+      if (open.isEmpty()) return;
+      Long userId = ((Number) open.get(0).get("user_id")).longValue();
+      String month = (String) open.get(0).get("month_year");
+      int consumed = ((Number) open.get(0).get("consumed")).intValue();
+      if (consumed > 0) addLookups(userId, month, consumed);
+      jdbcTemplate.update("UPDATE credit_reservations SET settled = TRUE, settled_at = CURRENT_TIMESTAMP WHERE batch_id = ?", batchId);
+    });
+  }
+
+  /** Settles reservations left open by finished jobs (settlement failed or the node died right after). */
+  public void settleFinishedBatches() {
+    List<Integer> stale = jdbcTemplate.queryForList(
+        "SELECT r.batch_id FROM credit_reservations r JOIN batch_jobs j ON j.batch_id = r.batch_id " +
+        "WHERE NOT r.settled AND j.status IN ('done', 'failed', 'cancelled', 'paused')", Integer.class);
+    for (Integer batchId : stale) settleCredits(batchId);
+  }
+
+  private int openGranted(Long userId, String month) {
+    Integer granted = jdbcTemplate.queryForObject(
+        "SELECT COALESCE(SUM(granted), 0) FROM credit_reservations WHERE user_id = ? AND month_year = ? AND NOT settled",
+        Integer.class, userId, month);
+    return granted != null ? granted : 0;
   }
 
   private int getLimitByTier(String tier) {
@@ -48,7 +164,8 @@ public class LookupService {
     };
   }
 
-  private String getTierFromDb(Long userId) {
+  /** Subscription tier of a user: free, premium or canceled (guests are free). */
+  public String getTier(Long userId) {
     if (userId == 0L) return "free"; // Guest
     String sql = "SELECT subscription_status FROM users WHERE id = ?";
     return jdbcTemplate.queryForObject(sql, String.class, userId);
@@ -58,8 +175,14 @@ public class LookupService {
     String currentMonth = YearMonth.now().toString();
     UserLookups record = lookupRepo.findByUserIdAndMonthYear(userId, currentMonth);
     int used = (record != null) ? record.getLookupCount() : 0;
-    String tier = (record != null) ? record.getTier() : getTierFromDb(userId);
+    String tier = (record != null) ? record.getTier() : getTier(userId);
     int limit = getLimitByTier(tier);
-    return Map.of("used", used, "limit", limit);
+    // Running batches: rows already geocoded count as used, the rest of their reservation as reserved
+    Map<String, Object> open = jdbcTemplate.queryForMap(
+        "SELECT COALESCE(SUM(consumed), 0) AS consumed, COALESCE(SUM(granted - consumed), 0) AS reserved " +
+        "FROM credit_reservations WHERE user_id = ? AND month_year = ? AND NOT settled",
+        userId, currentMonth);
+    return Map.of("used", used + ((Number) open.get("consumed")).intValue(), "limit", limit,
+        "reserved", ((Number) open.get("reserved")).intValue());
   }
-}
\ No newline at end of file
+}
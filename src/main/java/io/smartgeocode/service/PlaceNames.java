@@ -0,0 +1,94 @@
+package io.smartgeocode.service;
+
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.MissingResourceException;
+
+/**
+ * PlaceNames
+ * Shared folding and country-code helpers for the local (offline) lookup indexes.
+ */
+public final class PlaceNames {
+
+  private static final Map<String, String> COUNTRY_ALIASES = new HashMap<>();
+
+  static {
+    for (String iso2 : Locale.getISOCountries()) {
+      Locale locale = new Locale("", iso2);
+      COUNTRY_ALIASES.put(fold(iso2), iso2);
+      COUNTRY_ALIASES.put(fold(locale.getDisplayCountry(Locale.ENGLISH)), iso2);
+      try {
+        COUNTRY_ALIASES.put(fold(locale.getISO3Country()), iso2);
+      } catch (MissingResourceException ignored) {
+        // A few codes have no ISO3 equivalent
+      }
+    }
+    // Common spellings customers actually type
+    String[][] extra = {
+        {"usa", "US"}, {"u s a", "US"}, {"u s", "US"}, {"america", "US"}, {"united states of america", "US"},
+        {"uk", "GB"}, {"u k", "GB"}, {"great britain", "GB"}, {"britain", "GB"}, {"england", "GB"},
+        {"scotland", "GB"}, {"wales", "GB"}, {"northern ireland", "GB"},
+        {"uae", "AE"}, {"south korea", "KR"}, {"korea", "KR"}, {"north korea", "KP"},
+        {"russia", "RU"}, {"vietnam", "VN"}, {"czech republic", "CZ"}, {"holland", "NL"},
+        {"the netherlands", "NL"}, {"ivory coast", "CI"}, {"turkey", "TR"}, {"macedonia", "MK"}
+    };
+    for (String[] alias : extra) COUNTRY_ALIASES.put(alias[0], alias[1]);
+  }
+
+  private PlaceNames() {
+  }
+
+  /** Accent-stripped, lowercase, punctuation collapsed to single spaces. */
+  public static String fold(String value) {
+    if (value == null) return "";
+    String decomposed = Normalizer.normalize(value, Normalizer.Form.NFD);
+    StringBuilder out = new StringBuilder(decomposed.length());
+    boolean pendingSpace = false;
+    for (int i = 0; i < decomposed.length(); i++) {
+      char c = decomposed.charAt(i);
+      if (Character.getType(c) == Character.NON_SPACING_MARK) continue;
+      if (Character.isLetterOrDigit(c)) {
+        if (pendingSpace && out.length() > 0) out.append(' ');
+        out.append(Character.toLowerCase(c));
+        pendingSpace = false;
+      } else {
+        pendingSpace = true;
+      }
+    }
+    return out.toString();
+  }
+
+  /** ISO 3166 alpha-2 code for a code, ISO3 code or English name; null if unknown. */
+  public static String countryCode(String country) {
+    if (country == null || country.isBlank()) return null;
+    return COUNTRY_ALIASES.get(fold(country));
+  }
+
+  public static String countryName(String iso2) {
+    return new Locale("", iso2).getDisplayCountry(Locale.ENGLISH);
+  }
+
+  /** 64-bit FNV-1a over the UTF-8 bytes, used as compact keys in the primitive indexes. */
+  public static long hash64(String key) {
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+      hash ^= (b & 0xff);
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  /** Permutation that orders the first count keys ascending (load-time only). */
+  public static int[] sortedOrder(long[] keys, int count) {
+    Integer[] order = new Integer[count];
+    for (int i = 0; i < count; i++) order[i] = i;
+    Arrays.sort(order, (a, b) -> Long.compare(keys[a], keys[b]));
+    int[] result = new int[count];
+    for (int i = 0; i < count; i++) result[i] = order[i];
+    return result;
+  }
+}
@@ -0,0 +1,190 @@
+package io.smartgeocode.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * PostalCodeIndex
+ * Offline postal code -> centroid lookups, so the CSV zip column gives a fallback better than a
+ * city centroid without a provider call.
+ * Loads a GeoNames postal code dump (allCountries.txt / US.txt from download.geonames.org/export/zip)
+ * into primitive arrays sorted by a 64-bit hash of "COUNTRY|POSTALCODE". Place labels live in a
+ * single UTF-8 byte arena. Loaded at startup, or on first use when geocode.postal.lazy=true.
+ */
+@Service
+public class PostalCodeIndex {
+
+  @Value("${geocode.postal.file:}")
+  private String postalFile;
+
+  @Value("${geocode.postal.lazy:false}")
+  private boolean lazy;
+
+  // Zip columns rarely carry a country; most of our customers are US-based
+  @Value("${geocode.postal.default-country:US}")
+  private String defaultCountry;
+
+  private volatile boolean loaded = false;
+
+  private long[] keyHashes = new long[0];
+  private float[] lats = new float[0];
+  private float[] lngs = new float[0];
+  private int[] labelOffsets = new int[0];
+  private byte[] labels = new byte[0];
+
+  @PostConstruct
+  public void init() {
+    if (postalFile == null || postalFile.isBlank()) {
+      System.out.println("Postal Code Index Disabled (no GEOCODE_POSTAL_FILE).");
+      return;
+    }
+    if (!lazy) ensureLoaded();
+  }
+
+  /**
+   * Resolves a postal code (plus optional country) to the centroid of all places sharing it.
+   * Returns a success result map, or null when unknown locally.
+   */
+  public Map<String, Object> resolve(String postalCode, String country) {
+    if (postalCode == null || postalCode.isBlank() || postalFile == null || postalFile.isBlank()) return null;
+    ensureLoaded();
+    if (keyHashes.length == 0) return null;
+
+    String cc = PlaceNames.countryCode(country);
+    if (cc == null) {
+      if (country != null && !country.isBlank()) return null; // Named a country we don't know: don't guess
+      cc = defaultCountry;
+    }
+
+    for (String code : candidates(postalCode)) {
+      int i = Arrays.binarySearch(keyHashes, PlaceNames.hash64(cc + "|" + code));
+      if (i < 0) continue;
+      long hash = keyHashes[i];
+      while (i > 0 && keyHashes[i - 1] == hash) i--;
+
+      // Several places can share one code: answer with their average position
+      int first = i;
+      double latSum = 0;
+      double lngSum = 0;
+      int count = 0;
+      for (; i < keyHashes.length && keyHashes[i] == hash; i++) {
+        latSum += lats[i];
+        lngSum += lngs[i];
+        count++;
+      }
+      return Map.of(
+          "status", "success",
+          "lat", String.valueOf((float) (latSum / count)),
+          "lng", String.valueOf((float) (lngSum / count)),
+          "formatted_address", code + ", " + label(first) + ", " + PlaceNames.countryName(cc));
+    }
+    return null;
+  }
+
+  // "78701-1234" -> 78701; "SW1A 1AA" -> SW1A1AA, SW1A; "K1A 0B1" -> K1A0B1, K1A (GeoNames CA has FSAs only)
+  private Set<String> candidates(String postalCode) {
+    String raw = postalCode.trim().toUpperCase(Locale.ROOT);
+    Set<String> out = new LinkedHashSet<>();
+    out.add(compact(raw));
+    int dash = raw.indexOf('-');
+    if (dash > 0) out.add(compact(raw.substring(0, dash)));
+    int space = raw.indexOf(' ');
+    if (space > 0) out.add(compact(raw.substring(0, space)));
+    if (raw.chars().anyMatch(Character::isLetter) && compact(raw).length() > 3) out.add(compact(raw).substring(0, 3));
+    return out;
+  }
+
+  private static String compact(String code) {
+    return code.replaceAll("\\s+", "");
+  }
+
+  private String label(int entry) {
+    int start = labelOffsets[entry];
+    int end = entry + 1 < labelOffsets.length ? labelOffsets[entry + 1] : labels.length;
+    return new String(labels, start, end - start, StandardCharsets.UTF_8);
+  }
+
+  private void ensureLoaded() {
+    if (loaded) return;
+    synchronized (this) {
+      if (loaded) return;
+      long start = System.currentTimeMillis();
+      try {
+        load(Path.of(postalFile));
+        System.out.println("Postal Code Index Ready: " + keyHashes.length + " entries in " + (System.currentTimeMillis() - start) + "ms.");
+      } catch (Exception e) {
+        System.err.println("Postal Code Index Load Failed: " + e.getMessage());
+      }
+      loaded = true;
+    }
+  }
+
+  private void load(Path path) throws Exception {
+    // Columns: 0 country, 1 postal code, 2 place name, 3 admin name1, 4 admin code1, ..., 9 lat, 10 lng, 11 accuracy
+    int capacity = 1 << 16;
+    long[] hashes = new long[capacity];
+    float[] latIn = new float[capacity];
+    float[] lngIn = new float[capacity];
+    int[] offsetIn = new int[capacity];
+    ByteArrayOutputStream arena = new ByteArrayOutputStream(1 << 20);
+    int count = 0;
+
+    try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] cols = line.split("\t", -1);
+        if (cols.length < 11 || cols[9].isEmpty() || cols[10].isEmpty()) continue;
+        if (count == capacity) {
+          capacity *= 2;
+          hashes = Arrays.copyOf(hashes, capacity);
+          latIn = Arrays.copyOf(latIn, capacity);
+          lngIn = Arrays.copyOf(lngIn, capacity);
+          offsetIn = Arrays.copyOf(offsetIn, capacity);
+        }
+        hashes[count] = PlaceNames.hash64(cols[0] + "|" + compact(cols[1].toUpperCase(Locale.ROOT)));
+        latIn[count] = Float.parseFloat(cols[9]);
+        lngIn[count] = Float.parseFloat(cols[10]);
+        offsetIn[count] = arena.size();
+        String label = cols[3].isEmpty() ? cols[2] : cols[2] + ", " + cols[3];
+        arena.writeBytes(label.getBytes(StandardCharsets.UTF_8));
+        count++;
+      }
+    }
+
+    // Sort every column by key hash; labels stay in the arena, so rebuild it in sorted order
+    int[] order = PlaceNames.sortedOrder(hashes, count);
+    byte[] rawLabels = arena.toByteArray();
+    ByteArrayOutputStream sortedArena = new ByteArrayOutputStream(rawLabels.length);
+    long[] sortedHashes = new long[count];
+    float[] sortedLats = new float[count];
+    float[] sortedLngs = new float[count];
+    int[] sortedOffsets = new int[count];
+    for (int i = 0; i < count; i++) {
+      int src = order[i];
+      int start = offsetIn[src];
+      int end = src + 1 < count ? offsetIn[src + 1] : rawLabels.length;
+      sortedHashes[i] = hashes[src];
+      sortedLats[i] = latIn[src];
+      sortedLngs[i] = lngIn[src];
+      sortedOffsets[i] = sortedArena.size();
+      sortedArena.write(rawLabels, start, end - start);
+    }
+    labels = sortedArena.toByteArray();
+    labelOffsets = sortedOffsets;
+    lats = sortedLats;
+    lngs = sortedLngs;
+    keyHashes = sortedHashes;
+  }
+}
@@ -0,0 +1,48 @@
+package io.smartgeocode.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * RangeOutputStream
+ * Passes through only bytes from..to (inclusive) of what is written to it, for byte-range downloads.
+ */
+final class RangeOutputStream extends OutputStream {
+  final long from;
+  final long to;
+  private final OutputStream out;
+  private long position;
+
+  RangeOutputStream(OutputStream out, long from, long to) {
+    this.out = out;
+    this.from = from;
+    this.to = to;
+  }
+
+  // The caller jumped ahead without writing the bytes in between
+  void skipTo(long offset) {
+    position = Math.max(position, offset);
+  }
+
+  boolean done() {
+    return position > to;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] {(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    long start = Math.max(position, from);
+    long end = Math.min(position + len - 1, to);
+    if (start <= end) out.write(b, off + (int) (start - position), (int) (end - start + 1));
+    position += len;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    out.flush();
+  }
+}
@@ -0,0 +1,42 @@
+package io.smartgeocode.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * SingleFlight
+ * Coalesces concurrent calls for the same key: the first caller starts the loader,
+ * everyone arriving while it is in flight gets the same future.
+ * Nothing is memoized once the call completes (that is the caches' job).
+ */
+public class SingleFlight<K, V> {
+
+  private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+  public CompletableFuture<V> execute(K key, Supplier<CompletableFuture<V>> loader) {
+    CompletableFuture<V> mine = new CompletableFuture<>();
+    CompletableFuture<V> existing = inFlight.putIfAbsent(key, mine);
+    if (existing != null) {
+      return existing;
+    }
+    try {
+      loader.get().whenComplete((value, error) -> {
+        inFlight.remove(key, mine);
+        if (error != null) {
+          mine.completeExceptionally(error);
+        } else {
+          mine.complete(value);
+        }
+      });
+    } catch (RuntimeException e) {
+      inFlight.remove(key, mine);
+      mine.completeExceptionally(e);
+    }
+    return mine;
+  }
+
+  public int inFlightCount() {
+    return inFlight.size();
+  }
+}
@@ -0,0 +1,43 @@
+package io.smartgeocode.service;
+
+/**
+ * TokenBucket
+ * Thread-safe token bucket. Callers reserve a permit and are told how long to wait for it,
+ * so waiting happens outside the lock and reservations are served strictly in arrival order.
+ * A rate of 0 (or less) means unlimited.
+ */
+public class TokenBucket {
+
+  private final double capacity;
+  private double permitsPerSecond;
+  private double tokens;
+  private long lastRefillNanos;
+
+  public TokenBucket(double permitsPerSecond, double capacity) {
+    this.permitsPerSecond = permitsPerSecond;
+    this.capacity = Math.max(1.0, capacity);
+    this.tokens = this.capacity;
+    this.lastRefillNanos = System.nanoTime();
+  }
+
+  /** Takes one permit and returns the nanoseconds the caller must wait before using it. */
+  public synchronized long reserve() {
+    if (permitsPerSecond <= 0) return 0L;
+    refill();
+    tokens -= 1.0;
+    return tokens >= 0 ? 0L : (long) (-tokens / permitsPerSecond * 1_000_000_000L);
+  }
+
+  public synchronized void setRate(double permitsPerSecond) {
+    refill();
+    this.permitsPerSecond = permitsPerSecond;
+  }
+
+  private void refill() {
+    long now = System.nanoTime();
+    if (permitsPerSecond > 0) {
+      tokens = Math.min(capacity, tokens + (now - lastRefillNanos) / 1_000_000_000.0 * permitsPerSecond);
+    }
+    lastRefillNanos = now;
+  }
+}
@@ -0,0 +1,57 @@
+package io.smartgeocode.controller;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GeocodeControllerRangeTest {
+
+  private static final long LENGTH = 1000;
+
+  @Test
+  void boundedRange() {
+    assertArrayEquals(new long[] {0, 99}, GeocodeController.parseRange("bytes=0-99", LENGTH));
+    assertArrayEquals(new long[] {500, 500}, GeocodeController.parseRange("bytes=500-500", LENGTH));
+  }
+
+  @Test
+  void openEndedAndOverlongRangesStopAtTheLastByte() {
+    assertArrayEquals(new long[] {900, 999}, GeocodeController.parseRange("bytes=900-", LENGTH));
+    assertArrayEquals(new long[] {900, 999}, GeocodeController.parseRange("bytes=900-5000", LENGTH));
+  }
+
+  @Test
+  void suffixRange() {
+    assertArrayEquals(new long[] {950, 999}, GeocodeController.parseRange("bytes=-50", LENGTH));
+    assertArrayEquals(new long[] {0, 999}, GeocodeController.parseRange("bytes=-5000", LENGTH));
+  }
+
+  @Test
+  void unsatisfiableRangesAreEmpty() {
+    assertArrayEquals(new long[0], GeocodeController.parseRange("bytes=1000-", LENGTH));
+    assertArrayEquals(new long[0], GeocodeController.parseRange("bytes=2000-3000", LENGTH));
+    assertArrayEquals(new long[0], GeocodeController.parseRange("bytes=-0", LENGTH));
+  }
+
+  @Test
+  void malformedOrMultiRangeHeadersAreIgnored() {
+    assertNull(GeocodeController.parseRange("items=0-10", LENGTH));
+    assertNull(GeocodeController.parseRange("bytes=0-10,20-30", LENGTH));
+    assertNull(GeocodeController.parseRange("bytes=10", LENGTH));
+    assertNull(GeocodeController.parseRange("bytes=abc-def", LENGTH));
+    assertNull(GeocodeController.parseRange("bytes=50-10", LENGTH));
+  }
+
+  @Test
+  void acceptEncodingHonoursQZero() {
+    assertTrue(GeocodeController.acceptsEncoding("gzip, deflate, br", "gzip"));
+    assertTrue(GeocodeController.acceptsEncoding("br;q=1.0, GZIP;q=0.5", "gzip"));
+    assertFalse(GeocodeController.acceptsEncoding("gzip;q=0", "gzip"));
+    assertFalse(GeocodeController.acceptsEncoding("gzip;q=0.000", "gzip"));
+    assertFalse(GeocodeController.acceptsEncoding("deflate, br", "zstd"));
+    assertFalse(GeocodeController.acceptsEncoding(null, "gzip"));
+  }
+}
@@ -0,0 +1,86 @@
+package io.smartgeocode.provider;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ProviderParseBenchmark
+ * Streaming token parse of a Nominatim response (HttpGeocodeProvider.parseNominatim) against the
+ * previous approach: body as a String, bound to a List<Map> tree, first element read from the tree.
+ * Run with -Djmh.args="-prof gc" to compare allocation per response (gc.alloc.rate.norm).
+ *
+ *   mvn -Pbenchmark test-compile exec:exec -Dbenchmark=ProviderParseBenchmark -Djmh.args="-prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProviderParseBenchmark {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  // Nominatim returns up to `limit` candidates; we only ever use the first
+  @Param({"1", "10"})
+  public int candidates;
+
+  private byte[] body;
+
+  @Setup
+  public void setUp() {
+    StringBuilder json = new StringBuilder("[");
+    for (int i = 0; i < candidates; i++) {
+      if (i > 0) json.append(',');
+      json.append("{\"place_id\":").append(282601 + i)
+          .append(",\"licence\":\"Data © OpenStreetMap contributors, ODbL 1.0. https://osm.org/copyright\"")
+          .append(",\"osm_type\":\"way\",\"osm_id\":").append(19796501 + i)
+          .append(",\"lat\":\"30.2711286\",\"lon\":\"-97.7436995\"")
+          .append(",\"class\":\"place\",\"type\":\"city\",\"place_rank\":16,\"importance\":0.7906")
+          .append(",\"addresstype\":\"city\",\"name\":\"Austin\"")
+          .append(",\"display_name\":\"Austin, Travis County, Texas, United States\"")
+          .append(",\"address\":{\"city\":\"Austin\",\"county\":\"Travis County\",\"state\":\"Texas\",")
+          .append("\"ISO3166-2-lvl4\":\"US-TX\",\"country\":\"United States\",\"country_code\":\"us\"}")
+          .append(",\"boundingbox\":[\"30.0986648\",\"30.5166255\",\"-97.9383829\",\"-97.5614889\"]}");
+    }
+    body = json.append(']').toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public Optional<GeocodeMatch> streaming() throws IOException {
+    try (JsonParser parser = HttpGeocodeProvider.JSON.createParser(new ByteArrayInputStream(body))) {
+      return HttpGeocodeProvider.parseNominatim(parser);
+    }
+  }
+
+  @Benchmark
+  @SuppressWarnings("unchecked")
+  public Optional<GeocodeMatch> tree() throws IOException {
+    String text = new String(body, StandardCharsets.UTF_8);
+    Object parsed = MAPPER.readValue(text, Object.class);
+    List<Map<String, Object>> results = (List<Map<String, Object>>) parsed;
+    if (results.isEmpty()) return Optional.empty();
+    Map<String, Object> first = results.get(0);
+    return Optional.of(new GeocodeMatch((String) first.get("lat"), (String) first.get("lon"),
+        (String) first.get("display_name"), (String) first.get("class"), (String) first.get("type")));
+  }
+}
@@ -0,0 +1,119 @@
+package io.smartgeocode.service;
+
+import com.opencsv.CSVReader;
+import com.opencsv.exceptions.CsvValidationException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AddressNormalizerBenchmark
+ * normalize() cost per query, plus a corpus report printed once per fork: distinct keys (and the
+ * best-case cache hit rate) for exact text, the old lowercase key and the normalized key.
+ * Uses a built-in sample unless batch CSVs are given (comma-separated paths):
+ *
+ *   mvn -Pbenchmark test-compile exec:exec -Dbenchmark=AddressNormalizerBenchmark -Djmh.args="-p corpus=uploads/a.csv,uploads/b.csv"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AddressNormalizerBenchmark {
+
+  private static final String[] SAMPLE = {
+      "123 Main St., Austin, Texas, USA", "123 main street, austin, tx, us", "123 MAIN STREET, Austin, TX, United States",
+      "500 North Congress Avenue, Austin, TX", "500 N Congress Ave, Austin, Texas", "1600 Pennsylvania Ave NW, Washington, DC, USA",
+      "1600 Pennsylvania Avenue Northwest, Washington, District of Columbia, United States", "350 Fifth Avenue, New York, NY",
+      "350 5th Ave, New York, New York", "Suite 200, 1 Market Street, San Francisco, CA", "1 Market St Ste 200, San Francisco, California",
+      "Café de Flore, 172 Boulevard Saint-Germain, Paris, France", "cafe de flore, 172 boul saint-germain, paris, fr",
+      "O'Brien's Pub, 12 Harbour Road, Dublin, Ireland", "Obriens Pub, 12 Harbour Rd, Dublin, IE"
+  };
+
+  @Param({""})
+  public String corpus;
+
+  private List<String> queries;
+  private int next;
+
+  @Setup
+  public void setUp() throws IOException {
+    queries = corpus.isBlank() ? List.of(SAMPLE) : load(corpus.split(","));
+    if (queries.isEmpty()) throw new IllegalStateException("No queries in " + corpus);
+    report(queries);
+  }
+
+  @Benchmark
+  public String normalize() {
+    String query = queries.get(next);
+    next = next + 1 == queries.size() ? 0 : next + 1;
+    return AddressNormalizer.normalize(query);
+  }
+
+  // Queries as the batch waterfall builds them: landmark, address, city, state, country joined by ", "
+  private static List<String> load(String[] files) throws IOException {
+    List<String> queries = new ArrayList<>();
+    for (String file : files) {
+      try (CSVReader reader = new CSVReader(new FileReader(file.trim()))) {
+        String[] header = reader.readNext();
+        if (header == null) continue;
+        Map<String, Integer> cols = new HashMap<>();
+        for (int i = 0; i < header.length; i++) cols.put(header[i].toLowerCase(Locale.ROOT).trim(), i);
+        String[] line;
+        while ((line = reader.readNext()) != null) {
+          StringBuilder q = new StringBuilder();
+          for (String col : new String[] {"landmark", "address", "city", "state", "country"}) {
+            Integer i = cols.get(col);
+            if (i == null || i >= line.length || line[i].isBlank()) continue;
+            if (q.length() > 0) q.append(", ");
+            q.append(line[i].trim());
+          }
+          if (q.length() > 0) queries.add(q.toString());
+        }
+      } catch (CsvValidationException e) {
+        throw new IOException(file + " is not a readable CSV", e);
+      }
+    }
+    return queries;
+  }
+
+  private static void report(List<String> queries) {
+    Set<String> exact = new HashSet<>();
+    Set<String> previous = new HashSet<>();
+    Set<String> normalized = new HashSet<>();
+    for (String q : queries) {
+      exact.add(q);
+      previous.add(q.trim().toLowerCase(Locale.ROOT).replaceAll("\\s+", " "));
+      normalized.add(AddressNormalizer.normalize(q));
+    }
+    int n = queries.size();
+    System.out.printf("%nRows with a query:        %d%n", n);
+    System.out.printf("Distinct exact queries:   %d  (best-case cache hit rate %.1f%%)%n", exact.size(), hitRate(n, exact.size()));
+    System.out.printf("Distinct lowercase keys:  %d  (best-case cache hit rate %.1f%%)%n", previous.size(), hitRate(n, previous.size()));
+    System.out.printf("Distinct normalized keys: %d  (best-case cache hit rate %.1f%%)%n", normalized.size(), hitRate(n, normalized.size()));
+  }
+
+  private static double hitRate(int rows, int distinct) {
+    return rows == 0 ? 0 : 100.0 * (rows - distinct) / rows;
+  }
+}
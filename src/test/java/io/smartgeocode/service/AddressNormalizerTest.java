@@ -0,0 +1,100 @@
+package io.smartgeocode.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AddressNormalizerTest {
+
+  @Test
+  void spellingVariantsShareOneKey() {
+    String key = AddressNormalizer.normalize("123 Main St., Austin, Texas, USA");
+    assertEquals("123 main st austin us-tx @us", key);
+    assertEquals(key, AddressNormalizer.normalize("123 main street, austin, tx, us"));
+    assertEquals(key, AddressNormalizer.normalize("  123 MAIN STREET ,Austin, TX, United States "));
+  }
+
+  @Test
+  void foldsAccentsApostrophesAndDirectionals() {
+    assertEquals(AddressNormalizer.normalize("Café de Flore, Paris"), AddressNormalizer.normalize("CAFE DE FLORE, paris"));
+    assertEquals(AddressNormalizer.normalize("O'Brien Road"), AddressNormalizer.normalize("OBrien Rd"));
+    assertEquals(AddressNormalizer.normalize("500 North Congress Avenue"), AddressNormalizer.normalize("500 N Congress Ave"));
+  }
+
+  @Test
+  void stateNamesOnlyCanonicalisedInStatePosition() {
+    // "New York" before the country is the city, not the state
+    assertNotEquals(AddressNormalizer.normalize("New York, USA"), AddressNormalizer.normalize("NY, USA"));
+    assertNotEquals(AddressNormalizer.normalize("Washington"), AddressNormalizer.normalize("WA"));
+    assertEquals("washington us-dc", AddressNormalizer.normalize("Washington, DC"));
+    // After a city, with or without a country
+    assertEquals(AddressNormalizer.normalize("Seattle, Washington"), AddressNormalizer.normalize("Seattle, WA"));
+    assertEquals(AddressNormalizer.normalize("Albany, New York, USA"), AddressNormalizer.normalize("Albany, NY, US"));
+    // A state name inside the street part stays a word
+    assertEquals("1 washington st seattle us-wa", AddressNormalizer.normalize("1 Washington Street, Seattle, Washington"));
+  }
+
+  @Test
+  void countryOnlyCanonicalisedInLastPart() {
+    assertEquals("paris @fr", AddressNormalizer.normalize("Paris, France"));
+    assertEquals("jordan us-mn", AddressNormalizer.normalize("Jordan, Minnesota"));
+  }
+
+  @Test
+  void statesNeverShareAKeyWithCountriesOfTheSameCode() {
+    String[][] pairs = {
+        {"Windsor, California", "Windsor, Canada"}, {"Berlin, Delaware", "Berlin, Germany"},
+        {"Fort Wayne, Indiana", "Fort Wayne, India"}, {"Erie, Pennsylvania", "Erie, Panama"},
+        {"Aurora, Colorado", "Aurora, Colombia"}, {"Troy, Alabama", "Troy, Albania"}
+    };
+    for (String[] pair : pairs) {
+      assertNotEquals(AddressNormalizer.normalize(pair[0]), AddressNormalizer.normalize(pair[1]), pair[0] + " / " + pair[1]);
+    }
+    assertEquals("windsor us-ca @us", AddressNormalizer.normalize("Windsor, CA, USA"));
+    assertEquals("windsor ontario @ca", AddressNormalizer.normalize("Windsor, Ontario, Canada"));
+  }
+
+  @Test
+  void codesThatCouldBeEitherStayAsWritten() {
+    assertEquals("windsor ca", AddressNormalizer.normalize("Windsor, CA"));
+    assertEquals("berlin de", AddressNormalizer.normalize("Berlin, DE"));
+    assertEquals("atlanta georgia", AddressNormalizer.normalize("Atlanta, Georgia"));
+    // Unambiguous codes are still canonicalised
+    assertEquals(AddressNormalizer.normalize("Austin, Texas"), AddressNormalizer.normalize("Austin, TX"));
+    assertEquals(AddressNormalizer.normalize("Lyon, France"), AddressNormalizer.normalize("Lyon, FR"));
+  }
+
+  @Test
+  void statesAreOnlyReadAsSuchInTheUs() {
+    assertEquals("perth wa @au", AddressNormalizer.normalize("Perth, WA, Australia"));
+    assertNotEquals(AddressNormalizer.normalize("Perth, WA, Australia"), AddressNormalizer.normalize("Perth, Washington, Australia"));
+  }
+
+  @Test
+  void stateColumnMatchesCodeAndName() {
+    assertEquals("us-tx", AddressNormalizer.normalizeState("Texas"));
+    assertEquals("us-tx", AddressNormalizer.normalizeState(" TX "));
+    assertEquals("us-ny", AddressNormalizer.normalizeState("New York"));
+    assertEquals("us-ca", AddressNormalizer.normalizeState("CA"));
+    assertEquals("ontario", AddressNormalizer.normalizeState("Ontario"));
+  }
+
+  @Test
+  void longKeysAreHashedNotTruncated() {
+    String prefix = "1 Main Street ".repeat(100);
+    String a = AddressNormalizer.normalize(prefix + "Apartment 1");
+    String b = AddressNormalizer.normalize(prefix + "Apartment 2");
+    assertNotEquals(a, b);
+    assertEquals(1000, a.length());
+    assertEquals(a, AddressNormalizer.normalize(prefix + "Apt 1"));
+    assertTrue(AddressNormalizer.normalize("1 Main Street").length() < 1000);
+  }
+
+  @Test
+  void nullAndBlankAreEmpty() {
+    assertEquals("", AddressNormalizer.normalize(null));
+    assertEquals("", AddressNormalizer.normalize(" , ,"));
+  }
+}
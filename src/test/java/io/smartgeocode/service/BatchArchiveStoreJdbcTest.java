@@ -0,0 +1,116 @@
+package io.smartgeocode.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * BatchArchiveStoreJdbcTest
+ * Row pages read back from an archive (filtered by status through the per-block counts), and the purge of
+ * batch_results rows once the archive holds them and no stream reads them anymore.
+ */
+class BatchArchiveStoreJdbcTest {
+
+  private static final int BATCH = 7;
+
+  private TestDatabase db;
+  private BatchResultStore results;
+  private BatchArchiveStore archives;
+
+  @BeforeEach
+  void setUp() {
+    db = new TestDatabase();
+    results = new BatchResultStore();
+    ReflectionTestUtils.setField(results, "dataSource", db.dataSource);
+    ReflectionTestUtils.setField(results, "jdbcTemplate", db.jdbcTemplate);
+    ReflectionTestUtils.setField(results, "readerLeaseSeconds", 600);
+    results.initTable();
+
+    archives = new BatchArchiveStore();
+    ReflectionTestUtils.setField(archives, "jdbcTemplate", db.jdbcTemplate);
+    ReflectionTestUtils.setField(archives, "transactionTemplate", db.transactionTemplate);
+    ReflectionTestUtils.setField(archives, "resultStore", results);
+    ReflectionTestUtils.setField(archives, "codec", "gzip");
+    archives.initTable();
+
+    // 2500 rows in three blocks; only the last block has failed rows (2410, 2420, ... 2500)
+    db.jdbcTemplate.update("INSERT INTO batch_results (batch_id, row_index, input_address, lat, lng, formatted_address, status, match_type) " +
+        "SELECT ?, g, g || ' Main St', '30.27', '-97.74', 'Austin, TX', CASE WHEN g > 2400 AND g % 10 = 0 THEN 'error' ELSE 'success' END, 'exact' " +
+        "FROM generate_series(1, 2500) g", BATCH);
+  }
+
+  @AfterEach
+  void tearDown() {
+    if (db != null) db.close();
+  }
+
+  @Test
+  void statusFilteredPagesReadOnlyTheMatchingRows() throws Exception {
+    archives.archive(BATCH);
+    results.openReader(BATCH).close();
+    archives.purgeArchivedRows();
+    assertEquals(0, resultRows());
+
+    assertEquals(IntStream.rangeClosed(241, 250).map(i -> i * 10).boxed().toList(), read(0, "error", 100));
+    assertEquals(List.of(2460, 2470), read(2450, "error", 2));
+    assertEquals(List.of(), read(0, "missing", 100));
+    assertEquals(List.of(1000, 1001, 1002), read(999, null, 3));
+    assertEquals(List.of(2401, 2402), read(2400, "success", 2));
+
+    // The first block is never decoded for the failed rows: garbling it changes nothing
+    db.jdbcTemplate.update("UPDATE batch_archives SET data = overlay(data PLACING '\\xffffffffffffffff'::bytea FROM " +
+        "(SELECT CAST(stored_offset AS INTEGER) + 3 FROM batch_archive_blocks WHERE batch_id = ? AND first_row = 1)) WHERE batch_id = ?", BATCH, BATCH);
+    assertEquals(10, read(0, "error", 100).size());
+  }
+
+  @Test
+  void rowsStayWhileAStreamStartedOnThemIsStillReading() throws Exception {
+    BatchResultStore.Reader reader = results.openReader(BATCH);
+    archives.archive(BATCH);
+    archives.purgeArchivedRows();
+    assertEquals(2500, resultRows());
+
+    reader.close();
+    archives.purgeArchivedRows();
+    assertEquals(0, resultRows());
+
+    ByteArrayOutputStream csv = new ByteArrayOutputStream();
+    BatchArchiveStore.Archive archive = archives.find(BATCH);
+    archives.writeDecoded(archive, csv, 0, archive.rawBytes() - 1);
+    assertEquals(2501, csv.toString().split("\n").length);
+  }
+
+  @Test
+  void lapsedReaderNoLongerHoldsTheRows() throws Exception {
+    results.openReader(BATCH);
+    archives.archive(BATCH);
+    db.jdbcTemplate.update("UPDATE batch_result_readers SET expires_at = CURRENT_TIMESTAMP - INTERVAL '1 second'");
+
+    archives.purgeArchivedRows();
+
+    assertEquals(0, resultRows());
+    assertEquals(0, db.jdbcTemplate.queryForObject("SELECT COUNT(*) FROM batch_result_readers", Integer.class));
+  }
+
+  private List<Integer> read(int afterRow, String status, int limit) throws Exception {
+    List<Integer> rows = new ArrayList<>();
+    archives.readRows(BATCH, afterRow, status, row -> {
+      if (status != null) assertEquals(status, row.status());
+      rows.add(row.rowIndex());
+      return rows.size() < limit;
+    });
+    return rows;
+  }
+
+  private int resultRows() {
+    return db.jdbcTemplate.queryForObject("SELECT COUNT(*) FROM batch_results WHERE batch_id = ?", Integer.class, BATCH);
+  }
+}
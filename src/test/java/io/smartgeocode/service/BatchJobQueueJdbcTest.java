@@ -0,0 +1,234 @@
+package io.smartgeocode.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BatchJobQueueJdbcTest {
+
+  @TempDir
+  Path dir;
+
+  private TestDatabase db;
+  private BatchJobQueue queue;
+  private BatchResultStore results;
+
+  @BeforeEach
+  void setUp() {
+    db = new TestDatabase();
+    results = new BatchResultStore();
+    ReflectionTestUtils.setField(results, "dataSource", db.dataSource);
+    ReflectionTestUtils.setField(results, "jdbcTemplate", db.jdbcTemplate);
+    results.initTable();
+
+    queue = new BatchJobQueue();
+    ReflectionTestUtils.setField(queue, "dataSource", db.dataSource);
+    ReflectionTestUtils.setField(queue, "jdbcTemplate", db.jdbcTemplate);
+    ReflectionTestUtils.setField(queue, "meterRegistry", new SimpleMeterRegistry());
+    ReflectionTestUtils.setField(queue, "leaseSeconds", 120);
+    ReflectionTestUtils.setField(queue, "maxAttempts", 3);
+    ReflectionTestUtils.setField(queue, "maxRunningPerUser", 4);
+    ReflectionTestUtils.setField(queue, "chunkRows", 2);
+    queue.initTables();
+  }
+
+  @AfterEach
+  void tearDown() {
+    if (db != null) db.close();
+  }
+
+  @Test
+  void everyChunkIsClaimedByExactlyOneNode() throws Exception {
+    int batchId = submit(db.addUser("a@example.com", "free"), 5);
+
+    Set<Integer> chunks = new HashSet<>();
+    for (String node : List.of("node-a", "node-b", "node-c")) {
+      BatchJobQueue.ClaimedChunk chunk = queue.claim(node);
+      assertNotNull(chunk);
+      assertEquals(batchId, chunk.batchId());
+      assertEquals(1, chunk.attempts());
+      chunks.add(chunk.chunkIndex());
+    }
+    assertEquals(Set.of(0, 1, 2), chunks);
+    assertNull(queue.claim("node-d"));
+    assertEquals("running", jobStatus(batchId));
+  }
+
+  @Test
+  void chunksCoverTheDataRowsWithCheckpointsAtTheirStart() throws Exception {
+    submit(db.addUser("a@example.com", "free"), 5);
+
+    List<int[]> ranges = new ArrayList<>();
+    BatchJobQueue.ClaimedChunk chunk;
+    while ((chunk = queue.claim("node-a")) != null) ranges.add(new int[] {chunk.firstRow(), chunk.lastRow(), chunk.checkpointRow()});
+
+    assertEquals(3, ranges.size());
+    assertEquals(List.of("1-2@0", "3-4@2", "5-5@4"), ranges.stream().map(r -> r[0] + "-" + r[1] + "@" + r[2]).toList());
+  }
+
+  @Test
+  void expiredLeaseIsTakenOverAndTheOldOwnerIsFencedOut() throws Exception {
+    int batchId = submit(db.addUser("a@example.com", "free"), 2);
+    BatchJobQueue.ClaimedChunk first = queue.claim("node-a");
+    assertNull(queue.claim("node-b"));
+
+    expireLeases();
+    BatchJobQueue.ClaimedChunk second = queue.claim("node-b");
+    assertNotNull(second);
+    assertEquals(first.chunkIndex(), second.chunkIndex());
+    assertEquals(2, second.attempts());
+
+    assertFalse(queue.renewLease(first, "node-a"));
+    assertTrue(queue.renewLease(second, "node-b"));
+
+    List<BatchResultStore.Row> rows = List.of(row(1), row(2));
+    assertThrows(SQLException.class, () -> results.appendChunk(batchId, first.chunkIndex(), "node-a", rows, 2, 0));
+    assertEquals(0, resultRows(batchId));
+    assertEquals(0, processedRows(batchId));
+
+    results.appendChunk(batchId, second.chunkIndex(), "node-b", rows, 2, 0);
+    assertEquals(2, resultRows(batchId));
+    assertEquals(2, processedRows(batchId));
+    assertFalse(queue.completeChunk(first, "node-a"));
+    assertTrue(queue.completeChunk(second, "node-b"));
+    assertEquals("done", jobStatus(batchId));
+  }
+
+  @Test
+  void onlyTheLastChunkFinalizesTheBatch() throws Exception {
+    int batchId = submit(db.addUser("a@example.com", "free"), 4);
+    BatchJobQueue.ClaimedChunk first = queue.claim("node-a");
+    BatchJobQueue.ClaimedChunk second = queue.claim("node-b");
+
+    assertFalse(queue.completeChunk(second, "node-b"));
+    assertEquals("running", jobStatus(batchId));
+    assertTrue(queue.completeChunk(first, "node-a"));
+    assertEquals("done", jobStatus(batchId));
+    assertEquals(0, db.jdbcTemplate.queryForObject("SELECT COUNT(*) FROM batch_input_rows WHERE batch_id = ?", Integer.class, batchId));
+  }
+
+  @Test
+  void failingABatchClosesTheClaimedChunkToo() throws Exception {
+    int batchId = submit(db.addUser("a@example.com", "free"), 4);
+    BatchJobQueue.ClaimedChunk chunk = null;
+    for (int attempt = 1; attempt <= 4; attempt++) {
+      chunk = queue.claim("node-a");
+      if (attempt < 4) expireLeases();
+    }
+    assertEquals(4, chunk.attempts());
+
+    queue.fail(chunk, "node-a");
+
+    assertEquals("failed", jobStatus(batchId));
+    assertEquals(List.of("failed", "failed"), db.jdbcTemplate.queryForList(
+        "SELECT status FROM batch_chunks WHERE batch_id = ? ORDER BY chunk_index", String.class, batchId));
+    expireLeases();
+    assertNull(queue.claim("node-b"));
+  }
+
+  @Test
+  void perUserCapLeavesWorkersForOtherUsers() throws Exception {
+    ReflectionTestUtils.setField(queue, "maxRunningPerUser", 1);
+    int busy = submit(db.addUser("busy@example.com", "free"), 6);
+    int other = submit(db.addUser("other@example.com", "free"), 2);
+
+    BatchJobQueue.ClaimedChunk first = queue.claim("node-a");
+    assertEquals(busy, first.batchId());
+    assertEquals(other, queue.claim("node-b").batchId());
+    assertNull(queue.claim("node-c"));
+
+    queue.completeChunk(first, "node-a");
+    assertEquals(busy, queue.claim("node-c").batchId());
+  }
+
+  @Test
+  void premiumBatchesAreClaimedFirst() throws Exception {
+    int free = submit(db.addUser("free@example.com", "free"), 2);
+    int premium = submit(db.addUser("premium@example.com", "premium"), 2);
+
+    assertEquals(premium, queue.claim("node-a").batchId());
+    assertEquals(free, queue.claim("node-a").batchId());
+  }
+
+  @Test
+  void releasedChunkResumesFromItsCheckpoint() throws Exception {
+    int batchId = submit(db.addUser("a@example.com", "free"), 2);
+    BatchJobQueue.ClaimedChunk chunk = queue.claim("node-a");
+    results.appendChunk(batchId, chunk.chunkIndex(), "node-a", List.of(row(1)), 1, 0);
+    queue.release(chunk, "node-a", false);
+
+    BatchJobQueue.ClaimedChunk again = queue.claim("node-b");
+    assertEquals(1, again.checkpointRow());
+    assertEquals(1, again.attempts());
+  }
+
+  @Test
+  void limitRowIsAddedOnceAfterTheLastRow() throws Exception {
+    int batchId = submit(db.addUser("a@example.com", "free"), 6);
+    BatchJobQueue.ClaimedChunk first = queue.claim("node-a");
+    results.appendChunk(batchId, first.chunkIndex(), "node-a", List.of(row(1), row(2)), 2, 0);
+    assertFalse(queue.completeChunk(first, "node-a"));
+    // Out of credits after one row of the second chunk
+    BatchJobQueue.ClaimedChunk second = queue.claim("node-a");
+    results.appendChunk(batchId, second.chunkIndex(), "node-a", List.of(row(3)), 3, 0);
+    queue.skipRemaining(batchId);
+    assertTrue(queue.completeChunk(second, "node-a"));
+
+    assertTrue(results.appendLimitReached(batchId));
+    assertFalse(results.appendLimitReached(batchId));
+    assertEquals(List.of(7), db.jdbcTemplate.queryForList(
+        "SELECT row_index FROM batch_results WHERE batch_id = ? AND match_type = 'limit_hit'", Integer.class, batchId));
+    assertEquals(4, processedRows(batchId));
+
+    int full = submit(db.addUser("b@example.com", "free"), 2);
+    BatchJobQueue.ClaimedChunk only = queue.claim("node-a");
+    results.appendChunk(full, only.chunkIndex(), "node-a", List.of(row(1), row(2)), 2, 0);
+    assertTrue(queue.completeChunk(only, "node-a"));
+    assertFalse(results.appendLimitReached(full));
+  }
+
+  private int submit(long userId, int dataRows) throws Exception {
+    StringBuilder csv = new StringBuilder("address\n");
+    for (int i = 1; i <= dataRows; i++) csv.append(i).append(" Main St, Austin, TX\n");
+    Path file = Files.writeString(dir.resolve("upload-" + System.nanoTime() + ".csv"), csv);
+    return queue.submit(userId, "user@example.com", file, dataRows);
+  }
+
+  private void expireLeases() {
+    db.jdbcTemplate.update("UPDATE batch_chunks SET lease_expires_at = CURRENT_TIMESTAMP - INTERVAL '1 second' WHERE status = 'running'");
+  }
+
+  private String jobStatus(int batchId) {
+    return db.jdbcTemplate.queryForObject("SELECT status FROM batch_jobs WHERE batch_id = ?", String.class, batchId);
+  }
+
+  private int resultRows(int batchId) {
+    return db.jdbcTemplate.queryForObject("SELECT COUNT(*) FROM batch_results WHERE batch_id = ?", Integer.class, batchId);
+  }
+
+  private int processedRows(int batchId) {
+    return db.jdbcTemplate.queryForObject("SELECT processed_rows FROM batches WHERE id = ?", Integer.class, batchId);
+  }
+
+  private static BatchResultStore.Row row(int rowIndex) {
+    return new BatchResultStore.Row(rowIndex, rowIndex + " Main St", "30.27", "-97.74", "Austin, TX", "success", "exact");
+  }
+}
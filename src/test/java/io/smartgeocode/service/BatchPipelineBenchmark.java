@@ -0,0 +1,62 @@
+package io.smartgeocode.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BatchPipelineBenchmark
+ * Rows per second through BatchProcessor for an unthrottled in-process provider, by row-worker count
+ * (batch.pipeline.parallelism; 1 = rows prepared on the chunk thread only). Every row is a distinct
+ * address, so each one runs normalization, the cache miss and the provider call.
+ *
+ *   mvn -Pbenchmark test-compile exec:exec -Dbenchmark=BatchPipelineBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchPipelineBenchmark {
+
+  private static final int ROWS = 2000;
+
+  @Param({"1", "2", "4", "8"})
+  public int parallelism;
+
+  private BatchPipelineFixture fixture;
+  private int batch;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    fixture = new BatchPipelineFixture(new BatchPipelineFixture.CountingProvider(0, 64), parallelism, 32);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    fixture.shutdown();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public BatchProcessor.Outcome chunk() {
+    batch++;
+    fixture.written.clear();
+    // Fresh addresses per run, so later runs are not served from the cache
+    return fixture.run(batch, batch * ROWS, ROWS);
+  }
+}
@@ -0,0 +1,203 @@
+package io.smartgeocode.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.smartgeocode.provider.GeocodeMatch;
+import io.smartgeocode.provider.GeocodeProvider;
+import io.smartgeocode.provider.GeocodeProviderRegistry;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * BatchPipelineFixture
+ * A BatchProcessor wired to in-memory collaborators: an unthrottled provider that records its peak
+ * concurrency, a results store that keeps the written rows, and unlimited credits. No database.
+ */
+final class BatchPipelineFixture {
+
+  /**
+   * Answers every query (or none, so each row falls back to the local gazetteer) after a per-query delay
+   * (0..latencyMs) and tracks how many calls overlap.
+   */
+  static final class CountingProvider implements GeocodeProvider {
+    final AtomicInteger inFlight = new AtomicInteger();
+    final AtomicInteger peak = new AtomicInteger();
+    final AtomicInteger calls = new AtomicInteger();
+    private final long latencyMs;
+    private final int maxConcurrency;
+    private final boolean misses;
+
+    CountingProvider(long latencyMs, int maxConcurrency) {
+      this(latencyMs, maxConcurrency, false);
+    }
+
+    CountingProvider(long latencyMs, int maxConcurrency, boolean misses) {
+      this.latencyMs = latencyMs;
+      this.maxConcurrency = maxConcurrency;
+      this.misses = misses;
+    }
+
+    @Override
+    public String name() {
+      return "counting";
+    }
+
+    @Override
+    public double requestsPerSecond() {
+      return 0;
+    }
+
+    @Override
+    public int maxConcurrency() {
+      return maxConcurrency;
+    }
+
+    @Override
+    public Set<Capability> capabilities() {
+      return EnumSet.of(Capability.FREE_TEXT);
+    }
+
+    @Override
+    public Optional<GeocodeMatch> geocode(String query) {
+      if (misses) return Optional.empty();
+      return Optional.of(new GeocodeMatch("1.0", "2.0", "Result for " + query, "place", "house"));
+    }
+
+    @Override
+    public CompletableFuture<Optional<GeocodeMatch>> geocodeAsync(String query) {
+      calls.incrementAndGet();
+      peak.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+      long delay = latencyMs <= 0 ? 0 : Math.floorMod(query.hashCode(), latencyMs + 1);
+      CompletableFuture<Optional<GeocodeMatch>> answer = delay == 0
+          ? CompletableFuture.completedFuture(geocode(query))
+          : CompletableFuture.supplyAsync(() -> geocode(query), CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS));
+      return answer.whenComplete((r, e) -> inFlight.decrementAndGet());
+    }
+  }
+
+  final CountingProvider provider;
+  final List<BatchResultStore.Row> written = Collections.synchronizedList(new ArrayList<>());
+  final BatchProgressRegistry progressRegistry = new BatchProgressRegistry();
+  // Threads the local city fallback ran on (it knows every city)
+  final Set<String> gazetteerThreads = ConcurrentHashMap.newKeySet();
+  private final BatchProcessor processor = new BatchProcessor();
+  private final GeocodeService geocodeService = new GeocodeService();
+
+  BatchPipelineFixture(CountingProvider provider, int parallelism, int windowSize) {
+    this.provider = provider;
+    SimpleMeterRegistry meters = new SimpleMeterRegistry();
+
+    GeocodeProviderRegistry providers = new GeocodeProviderRegistry();
+    ReflectionTestUtils.setField(providers, "active", provider);
+
+    GeocodeCache cache = new GeocodeCache();
+    ReflectionTestUtils.setField(cache, "meterRegistry", meters);
+    ReflectionTestUtils.setField(cache, "maxSize", 10_000L);
+    ReflectionTestUtils.setField(cache, "ttlMinutes", 10L);
+    ReflectionTestUtils.setField(cache, "negativeTtlMinutes", 1L);
+    cache.init();
+
+    GeocodeRateLimiter rateLimiter = new GeocodeRateLimiter();
+    ReflectionTestUtils.setField(rateLimiter, "meterRegistry", meters);
+    ReflectionTestUtils.setField(rateLimiter, "freeWeight", 1);
+    ReflectionTestUtils.setField(rateLimiter, "premiumWeight", 4);
+    ReflectionTestUtils.setField(rateLimiter, "interactiveWeight", 8);
+
+    GeocodeResultStore resultStore = new GeocodeResultStore() {
+      @Override
+      public Map<String, Object> find(String query) {
+        return null;
+      }
+
+      @Override
+      public void save(String query, Map<String, Object> result, String provider, String matchClass, String matchType) {
+      }
+    };
+
+    ReflectionTestUtils.setField(geocodeService, "providers", providers);
+    ReflectionTestUtils.setField(geocodeService, "resultStore", resultStore);
+    ReflectionTestUtils.setField(geocodeService, "geocodeCache", cache);
+    ReflectionTestUtils.setField(geocodeService, "rateLimiter", rateLimiter);
+    ReflectionTestUtils.setField(geocodeService, "meterRegistry", meters);
+    ReflectionTestUtils.setField(geocodeService, "storeThreads", 2);
+    geocodeService.init();
+
+    LookupService lookupService = new LookupService() {
+      @Override
+      public int reserveCredits(Long userId, int batchId, int requested) {
+        return requested;
+      }
+
+      @Override
+      public void returnCredits(int batchId, int credits) {
+      }
+
+      @Override
+      public String getTier(Long userId) {
+        return "free";
+      }
+    };
+
+    BatchResultStore batchResults = new BatchResultStore() {
+      @Override
+      public void appendChunk(int batchId, int chunkIndex, String nodeId, List<Row> rows, int checkpointRow, int consumedCredits) {
+        written.addAll(rows);
+      }
+    };
+
+    ReflectionTestUtils.setField(progressRegistry, "rateLimiter", rateLimiter);
+
+    ReflectionTestUtils.setField(processor, "lookupService", lookupService);
+    ReflectionTestUtils.setField(processor, "geocodeService", geocodeService);
+    ReflectionTestUtils.setField(processor, "rateLimiter", rateLimiter);
+    ReflectionTestUtils.setField(processor, "resultStore", batchResults);
+    ReflectionTestUtils.setField(processor, "progressRegistry", progressRegistry);
+    LocalGazetteer gazetteer = new LocalGazetteer() {
+      @Override
+      public Map<String, Object> resolve(String city, String state, String country) {
+        gazetteerThreads.add(Thread.currentThread().getName());
+        return Map.of("status", "success", "lat", "1.0", "lng", "2.0", "formatted_address", city);
+      }
+    };
+
+    ReflectionTestUtils.setField(processor, "gazetteer", gazetteer);
+    ReflectionTestUtils.setField(processor, "postalIndex", new PostalCodeIndex());
+    ReflectionTestUtils.setField(processor, "providers", providers);
+    ReflectionTestUtils.setField(processor, "windowSize", windowSize);
+    ReflectionTestUtils.setField(processor, "parallelism", parallelism);
+    ReflectionTestUtils.setField(processor, "dedupeEntries", 50_000);
+    ReflectionTestUtils.setField(processor, "reserveChunk", 500);
+    ReflectionTestUtils.setField(processor, "chunkRows", 200);
+    ReflectionTestUtils.setField(processor, "flushMs", 60_000L);
+    processor.init();
+  }
+
+  /** Runs one chunk of `rows` distinct addresses ("addr <first>" ...) through the pipeline. */
+  BatchProcessor.Outcome run(int batchId, int first, int rows) {
+    return run(batchId, first, rows, () -> false);
+  }
+
+  BatchProcessor.Outcome run(int batchId, int first, int rows, BooleanSupplier leaseLost) {
+    List<String[]> input = new ArrayList<>(rows + 1);
+    input.add(new String[] {"address", "city"});
+    for (int i = 0; i < rows; i++) input.add(new String[] {"addr " + (first + i), "Springfield"});
+    BatchJobQueue.ClaimedChunk chunk = new BatchJobQueue.ClaimedChunk(batchId, 0, 1, rows, 0, 1L, "owner@example.com", 1);
+    return processor.processChunk(chunk, "test-node", input, leaseLost);
+  }
+
+  void shutdown() {
+    processor.shutdown();
+    geocodeService.shutdown();
+  }
+}
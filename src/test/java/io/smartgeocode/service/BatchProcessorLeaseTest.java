@@ -0,0 +1,30 @@
+package io.smartgeocode.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BatchProcessorLeaseTest {
+
+  private BatchPipelineFixture fixture;
+
+  @AfterEach
+  void tearDown() {
+    if (fixture != null) fixture.shutdown();
+  }
+
+  @Test
+  void lostLeaseDropsUncommittedRowsFromTheLiveProgress() {
+    fixture = new BatchPipelineFixture(new BatchPipelineFixture.CountingProvider(0, 4), 1, 8);
+    // Another chunk of the batch keeps the progress entry alive on this node
+    BatchProgressRegistry.Progress progress = fixture.progressRegistry.start(7);
+
+    BatchProcessor.Outcome outcome = fixture.run(7, 0, 150, () -> fixture.provider.calls.get() >= 50);
+
+    assertEquals(BatchProcessor.Outcome.LEASE_LOST, outcome);
+    assertTrue(fixture.written.isEmpty(), "nothing may be committed after the lease is lost");
+    assertEquals(0, progress.pending());
+  }
+}
@@ -0,0 +1,71 @@
+package io.smartgeocode.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BatchProcessorParallelTest {
+
+  private BatchPipelineFixture fixture;
+
+  @AfterEach
+  void tearDown() {
+    if (fixture != null) fixture.shutdown();
+  }
+
+  @Test
+  void rowWorkersWriteInInputOrderWithinTheProviderLimit() {
+    // Per-query latency between 0 and 15 ms, so rows finish out of order
+    fixture = new BatchPipelineFixture(new BatchPipelineFixture.CountingProvider(15, 4), 4, 8);
+
+    assertEquals(BatchProcessor.Outcome.FINISHED, fixture.run(1, 0, 300));
+
+    assertRowsInOrder(fixture.written, 300);
+    assertEquals(300, fixture.provider.calls.get());
+    assertTrue(fixture.provider.peak.get() <= 4, "peak provider concurrency " + fixture.provider.peak.get());
+    assertTrue(fixture.provider.peak.get() > 1, "provider calls never overlapped");
+  }
+
+  @Test
+  void everyAttemptOfTheWaterfallRunsOnTheRowWorkers() {
+    // The provider misses every query (after up to 15 ms), so each row ends at the local city fallback
+    fixture = new BatchPipelineFixture(new BatchPipelineFixture.CountingProvider(15, 4, true), 4, 8);
+
+    assertEquals(BatchProcessor.Outcome.FINISHED, fixture.run(1, 0, 120));
+
+    assertEquals(120, fixture.written.size());
+    for (int i = 0; i < 120; i++) {
+      BatchResultStore.Row row = fixture.written.get(i);
+      assertEquals(i + 1, row.rowIndex());
+      assertEquals("addr " + i, row.inputAddress());
+      assertEquals("city_fallback", row.matchType());
+    }
+    assertEquals(Set.of("batch-row"), fixture.gazetteerThreads);
+  }
+
+  @Test
+  void singleThreadedPipelineKeepsTheSameOrder() {
+    fixture = new BatchPipelineFixture(new BatchPipelineFixture.CountingProvider(5, 2), 1, 8);
+
+    assertEquals(BatchProcessor.Outcome.FINISHED, fixture.run(1, 0, 100));
+
+    assertRowsInOrder(fixture.written, 100);
+    assertTrue(fixture.provider.peak.get() <= 2, "peak provider concurrency " + fixture.provider.peak.get());
+  }
+
+  private static void assertRowsInOrder(List<BatchResultStore.Row> rows, int count) {
+    assertEquals(count, rows.size());
+    for (int i = 0; i < count; i++) {
+      BatchResultStore.Row row = rows.get(i);
+      assertEquals(i + 1, row.rowIndex());
+      assertEquals("addr " + i, row.inputAddress());
+      assertEquals("success", row.status());
+      assertEquals("Result for addr " + i + ", Springfield", row.formattedAddress());
+    }
+  }
+}
@@ -0,0 +1,199 @@
+package io.smartgeocode.service;
+
+import io.smartgeocode.entity.UserLookups;
+import io.smartgeocode.repository.UserLookupsRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.sql.SQLException;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * CreditSettlementJdbcTest
+ * Reservations against the tier limit, consumption recorded with each result chunk and settlement.
+ * The JPA repository is stubbed with a plain read of user_lookups, where settlement bills through JDBC.
+ */
+class CreditSettlementJdbcTest {
+
+  private TestDatabase db;
+  private LookupService lookups;
+  private BatchResultStore results;
+  private long userId;
+
+  @BeforeEach
+  void setUp() {
+    db = new TestDatabase();
+    lookups = new LookupService();
+    UserLookupsRepository repo = Mockito.mock(UserLookupsRepository.class);
+    Mockito.when(repo.findByUserIdAndMonthYear(Mockito.anyLong(), Mockito.anyString())).thenAnswer(call -> lookup(call.getArgument(0), call.getArgument(1)));
+    ReflectionTestUtils.setField(lookups, "lookupRepo", repo);
+    ReflectionTestUtils.setField(lookups, "jdbcTemplate", db.jdbcTemplate);
+    ReflectionTestUtils.setField(lookups, "transactionTemplate", db.transactionTemplate);
+    lookups.initReservations();
+
+    results = new BatchResultStore();
+    ReflectionTestUtils.setField(results, "dataSource", db.dataSource);
+    ReflectionTestUtils.setField(results, "jdbcTemplate", db.jdbcTemplate);
+    results.initTable();
+    // Chunk 0 of every batch is leased to node-a, so appendChunk gets past the lease fence
+    db.jdbcTemplate.execute("CREATE TABLE batch_chunks (" +
+        "batch_id INTEGER NOT NULL, " +
+        "chunk_index INTEGER NOT NULL, " +
+        "checkpoint_row INTEGER NOT NULL, " +
+        "status VARCHAR(20) NOT NULL, " +
+        "lease_owner VARCHAR(255), " +
+        "PRIMARY KEY (batch_id, chunk_index))");
+
+    userId = db.addUser("a@example.com", "free");
+  }
+
+  @AfterEach
+  void tearDown() {
+    if (db != null) db.close();
+  }
+
+  @Test
+  void reservationsAreCappedByTheTierLimitAcrossBatches() {
+    int first = batch();
+    int second = batch();
+
+    assertEquals(400, lookups.reserveCredits(userId, first, 400));
+    assertEquals(100, lookups.reserveCredits(userId, second, 400));
+    assertEquals(0, lookups.reserveCredits(userId, second, 1));
+    assertEquals(500, usage().get("reserved"));
+  }
+
+  @Test
+  void settlementBillsWhatWasConsumedAndReleasesTheRest() throws SQLException {
+    int batchId = batch();
+    assertEquals(300, lookups.reserveCredits(userId, batchId, 300));
+    results.appendChunk(batchId, 0, "node-a", List.of(row(1), row(2)), 2, 120);
+    assertEquals(Map.of("used", 120, "limit", 500, "reserved", 180), usage());
+
+    lookups.settleCredits(batchId);
+    lookups.settleCredits(batchId);
+
+    assertEquals(120, billed());
+    assertEquals(380, lookups.reserveCredits(userId, batch(), 500));
+  }
+
+  @Test
+  void returnedCreditsAreFreeForOtherBatchesButNeverBelowConsumed() throws SQLException {
+    int batchId = batch();
+    lookups.reserveCredits(userId, batchId, 500);
+    results.appendChunk(batchId, 0, "node-a", List.of(row(1)), 1, 50);
+
+    lookups.returnCredits(batchId, 1000);
+
+    assertEquals(Map.of("used", 50, "limit", 500, "reserved", 0), usage());
+    assertEquals(450, lookups.reserveCredits(userId, batch(), 500));
+  }
+
+  @Test
+  void chunkIsRolledBackWhenItsReservationWasSettledMeanwhile() throws SQLException {
+    int batchId = batch();
+    lookups.reserveCredits(userId, batchId, 100);
+    lookups.settleCredits(batchId);
+
+    assertThrows(SQLException.class,
+        () -> results.appendChunk(batchId, 0, "node-a", List.of(row(1)), 1, 1));
+
+    assertEquals(0, db.jdbcTemplate.queryForObject("SELECT COUNT(*) FROM batch_results WHERE batch_id = ?", Integer.class, batchId));
+    assertEquals(0, db.jdbcTemplate.queryForObject("SELECT checkpoint_row FROM batch_chunks WHERE batch_id = ?", Integer.class, batchId));
+    assertEquals(0, billed());
+
+    // The retry reserves afresh and is billed on the next settlement
+    assertEquals(100, lookups.reserveCredits(userId, batchId, 100));
+    results.appendChunk(batchId, 0, "node-a", List.of(row(1)), 1, 1);
+    lookups.settleCredits(batchId);
+    assertEquals(1, billed());
+  }
+
+  @Test
+  void singleLookupsAndSettlementNeverLoseEachOthersCounts() throws Exception {
+    int batchId = batch();
+    lookups.reserveCredits(userId, batchId, 100);
+    results.appendChunk(batchId, 0, "node-a", List.of(row(1)), 1, 40);
+
+    ExecutorService pool = Executors.newFixedThreadPool(5);
+    try {
+      List<Future<?>> calls = new ArrayList<>();
+      for (int t = 0; t < 4; t++) {
+        calls.add(pool.submit(() -> {
+          for (int i = 0; i < 25; i++) lookups.incrementLookup(userId, 1);
+        }));
+      }
+      calls.add(pool.submit(() -> lookups.settleCredits(batchId)));
+      for (Future<?> call : calls) call.get(30, TimeUnit.SECONDS);
+    } finally {
+      pool.shutdownNow();
+    }
+
+    assertEquals(140, billed());
+    assertEquals(1, db.jdbcTemplate.queryForObject("SELECT COUNT(*) FROM user_lookups WHERE user_id = ?", Integer.class, userId));
+  }
+
+  @Test
+  void duplicateUsageRowsAreMergedWhenTheIndexIsCreated() {
+    db.jdbcTemplate.execute("DROP INDEX uq_user_lookups_user_month");
+    String month = YearMonth.now().toString();
+    for (int count : new int[] {3, 4}) {
+      db.jdbcTemplate.update("INSERT INTO user_lookups (user_id, month_year, tier, lookup_count) VALUES (?, ?, 'free', ?)", userId, month, count);
+    }
+
+    lookups.initReservations();
+    lookups.incrementLookup(userId, 1);
+
+    assertEquals(8, billed());
+    assertEquals(1, db.jdbcTemplate.queryForObject("SELECT COUNT(*) FROM user_lookups WHERE user_id = ?", Integer.class, userId));
+  }
+
+  private int batch() {
+    Integer batchId = db.jdbcTemplate.queryForObject(
+        "INSERT INTO batches (user_id, status) VALUES (?, 'processing') RETURNING id", Integer.class, userId);
+    db.jdbcTemplate.update("INSERT INTO batch_chunks (batch_id, chunk_index, checkpoint_row, status, lease_owner) VALUES (?, 0, 0, 'running', 'node-a')", batchId);
+    return batchId;
+  }
+
+  private UserLookups lookup(Long userId, String month) {
+    List<UserLookups> found = db.jdbcTemplate.query(
+        "SELECT tier, lookup_count FROM user_lookups WHERE user_id = ? AND month_year = ?",
+        (rs, i) -> {
+          UserLookups record = new UserLookups();
+          record.setUserId(userId);
+          record.setMonthYear(month);
+          record.setTier(rs.getString("tier"));
+          record.setLookupCount(rs.getInt("lookup_count"));
+          return record;
+        },
+        userId, month);
+    return found.isEmpty() ? null : found.get(0);
+  }
+
+  private static BatchResultStore.Row row(int rowIndex) {
+    return new BatchResultStore.Row(rowIndex, rowIndex + " Main St", "30.27", "-97.74", "Austin, TX", "success", "exact");
+  }
+
+  private Map<String, Integer> usage() {
+    return lookups.getUsage(userId);
+  }
+
+  private int billed() {
+    List<Integer> counts = db.jdbcTemplate.queryForList(
+        "SELECT lookup_count FROM user_lookups WHERE user_id = ? AND month_year = ?", Integer.class, userId, YearMonth.now().toString());
+    return counts.isEmpty() ? 0 : counts.get(0);
+  }
+}
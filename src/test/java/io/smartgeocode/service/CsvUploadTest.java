@@ -0,0 +1,51 @@
+package io.smartgeocode.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CsvUploadTest {
+
+  @TempDir
+  Path dir;
+
+  @Test
+  void skipsBlankAndCommentLines() throws Exception {
+    Path file = Files.writeString(dir.resolve("upload.csv"), "address,city\n\n# note\n,\n1 Main St,Austin\n\"2 Oak Ave, Apt 3\",Dallas\n");
+
+    List<String[]> rows = rows(file);
+
+    assertEquals(3, CsvUpload.countRows(file));
+    assertEquals("2 Oak Ave, Apt 3", rows.get(2)[0]);
+  }
+
+  @Test
+  void nonUtf8BytesAreReplacedInsteadOfFailingTheUpload() throws Exception {
+    // "Café" as cp1252 / Latin-1: 0xE9 is not valid UTF-8 on its own
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    bytes.writeBytes("address,city\nCaf".getBytes(StandardCharsets.US_ASCII));
+    bytes.write(0xE9);
+    bytes.writeBytes(" Rouge,Paris\n".getBytes(StandardCharsets.US_ASCII));
+    Path file = Files.write(dir.resolve("latin1.csv"), bytes.toByteArray());
+
+    List<String[]> rows = rows(file);
+
+    assertEquals(2, rows.size());
+    assertEquals("Caf\uFFFD Rouge", rows.get(1)[0]);
+    assertEquals("Paris", rows.get(1)[1]);
+  }
+
+  private static List<String[]> rows(Path file) throws Exception {
+    List<String[]> rows = new ArrayList<>();
+    CsvUpload.forEachRow(file, rows::add);
+    return rows;
+  }
+}
@@ -0,0 +1,66 @@
+package io.smartgeocode.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class FairQueueTest {
+
+  @Test
+  void equalWeightsInterleave() {
+    FairQueue<String> queue = new FairQueue<>();
+    for (int i = 1; i <= 4; i++) queue.add("big", 1, "big" + i);
+    queue.add("small", 1, "small1");
+    queue.add("small", 1, "small2");
+
+    assertEquals(List.of("big1", "small1", "big2", "small2", "big3", "big4"), drain(queue));
+  }
+
+  @Test
+  void heavierLaneGetsItsWeightPerRound() {
+    FairQueue<String> queue = new FairQueue<>();
+    for (int i = 1; i <= 6; i++) queue.add("premium", 4, "p" + i);
+    for (int i = 1; i <= 3; i++) queue.add("free", 1, "f" + i);
+
+    assertEquals(List.of("p1", "p2", "p3", "p4", "f1", "p5", "p6", "f2", "f3"), drain(queue));
+  }
+
+  @Test
+  void sizeAndTenantsFollowTheQueue() {
+    FairQueue<String> queue = new FairQueue<>();
+    assertNull(queue.poll());
+    queue.add("a", 1, "a1");
+    queue.add("b", 1, "b1");
+    queue.add("b", 1, "b2");
+    assertEquals(3, queue.size());
+    assertEquals(2, queue.tenants());
+
+    queue.poll();
+    assertEquals(2, queue.size());
+    assertEquals(1, queue.tenants());
+  }
+
+  @Test
+  void removeIfDropsMatchingItemsAndEmptyLanes() {
+    FairQueue<String> queue = new FairQueue<>();
+    queue.add("cancelled", 1, "c1");
+    queue.add("cancelled", 1, "c2");
+    queue.add("live", 1, "l1");
+
+    assertEquals(List.of("c1", "c2"), queue.removeIf(item -> item.startsWith("c")));
+    assertEquals(1, queue.size());
+    assertEquals(1, queue.tenants());
+    assertEquals(List.of("l1"), drain(queue));
+  }
+
+  private static List<String> drain(FairQueue<String> queue) {
+    List<String> order = new ArrayList<>();
+    String item;
+    while ((item = queue.poll()) != null) order.add(item);
+    return order;
+  }
+}
@@ -0,0 +1,63 @@
+package io.smartgeocode.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RangeOutputStreamTest {
+
+  private static final byte[] TEXT = "0123456789abcdefghij".getBytes(StandardCharsets.US_ASCII);
+
+  @Test
+  void passesOnlyTheRangeWhateverTheWriteSizes() throws IOException {
+    for (int chunk = 1; chunk <= TEXT.length; chunk++) {
+      for (int from = 0; from < TEXT.length; from++) {
+        for (int to = from; to < TEXT.length; to++) {
+          assertEquals(new String(TEXT, from, to - from + 1, StandardCharsets.US_ASCII), write(from, to, chunk),
+              "range " + from + "-" + to + " in writes of " + chunk);
+        }
+      }
+    }
+  }
+
+  @Test
+  void doneOncePastTheEnd() throws IOException {
+    RangeOutputStream range = new RangeOutputStream(new ByteArrayOutputStream(), 2, 5);
+    range.write(TEXT, 0, 5);
+    assertFalse(range.done());
+    range.write(TEXT, 5, 1);
+    assertTrue(range.done());
+  }
+
+  @Test
+  void skipToJumpsWithoutWriting() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    RangeOutputStream range = new RangeOutputStream(out, 12, 15);
+    range.skipTo(10);
+    // The caller resumes at offset 10: "ab" are bytes 10-11, "cdef" 12-15
+    range.write(TEXT, 10, 10);
+    assertEquals("cdef", out.toString(StandardCharsets.US_ASCII));
+  }
+
+  @Test
+  void singleByteWrites() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    RangeOutputStream range = new RangeOutputStream(out, 3, 4);
+    for (byte b : TEXT) range.write(b);
+    assertEquals("34", out.toString(StandardCharsets.US_ASCII));
+  }
+
+  private static String write(long from, long to, int chunk) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    RangeOutputStream range = new RangeOutputStream(out, from, to);
+    for (int off = 0; off < TEXT.length && !range.done(); off += chunk) range.write(TEXT, off, Math.min(chunk, TEXT.length - off));
+    range.flush();
+    return out.toString(StandardCharsets.US_ASCII);
+  }
+}
@@ -0,0 +1,78 @@
+package io.smartgeocode.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SingleFlightTest {
+
+  private final SingleFlight<String, String> flight = new SingleFlight<>();
+  private final AtomicInteger loads = new AtomicInteger();
+
+  @Test
+  void concurrentCallersShareOneLoad() throws Exception {
+    CompletableFuture<String> pending = new CompletableFuture<>();
+    CompletableFuture<String> first = flight.execute("austin", () -> load(pending));
+    CompletableFuture<String> second = flight.execute("austin", () -> load(pending));
+
+    assertSame(first, second);
+    assertEquals(1, loads.get());
+    assertEquals(1, flight.inFlightCount());
+
+    pending.complete("30.27,-97.74");
+    assertEquals("30.27,-97.74", second.get());
+    assertEquals(0, flight.inFlightCount());
+  }
+
+  @Test
+  void differentKeysLoadSeparately() {
+    flight.execute("austin", () -> load(new CompletableFuture<>()));
+    flight.execute("dallas", () -> load(new CompletableFuture<>()));
+
+    assertEquals(2, loads.get());
+    assertEquals(2, flight.inFlightCount());
+  }
+
+  @Test
+  void nothingIsMemoizedAfterCompletion() throws Exception {
+    assertEquals("a", flight.execute("austin", () -> load(CompletableFuture.completedFuture("a"))).get());
+    assertEquals("b", flight.execute("austin", () -> load(CompletableFuture.completedFuture("b"))).get());
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  void failuresReachEveryCallerAndAreNotKept() throws Exception {
+    CompletableFuture<String> pending = new CompletableFuture<>();
+    CompletableFuture<String> first = flight.execute("austin", () -> load(pending));
+    CompletableFuture<String> second = flight.execute("austin", () -> load(pending));
+    pending.completeExceptionally(new IllegalStateException("provider down"));
+
+    ExecutionException e = assertThrows(ExecutionException.class, second::get);
+    assertTrue(e.getCause() instanceof IllegalStateException);
+    assertTrue(first.isCompletedExceptionally());
+    assertEquals("ok", flight.execute("austin", () -> load(CompletableFuture.completedFuture("ok"))).get());
+  }
+
+  @Test
+  void loaderThatThrowsCompletesExceptionally() throws Exception {
+    CompletableFuture<String> result = flight.execute("austin", () -> {
+      throw new IllegalArgumentException("bad query");
+    });
+
+    ExecutionException e = assertThrows(ExecutionException.class, result::get);
+    assertTrue(e.getCause() instanceof IllegalArgumentException);
+    assertEquals(0, flight.inFlightCount());
+  }
+
+  private CompletableFuture<String> load(CompletableFuture<String> result) {
+    loads.incrementAndGet();
+    return result;
+  }
+}
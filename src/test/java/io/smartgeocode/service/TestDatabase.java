@@ -0,0 +1,99 @@
+package io.smartgeocode.service;
+
+import org.junit.jupiter.api.Assumptions;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.DockerClientFactory;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+import javax.sql.DataSource;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * TestDatabase
+ * A Postgres schema of its own for one JDBC test, holding the tables the application creates at startup
+ * outside the services (users, batches, user_lookups). Uses TEST_DATABASE_URL (TEST_DATABASE_USER /
+ * TEST_DATABASE_PASSWORD, default postgres) when set, otherwise a Postgres container shared by the whole run;
+ * the test is skipped when neither is available.
+ */
+final class TestDatabase implements AutoCloseable {
+
+  private static final AtomicInteger SCHEMAS = new AtomicInteger();
+  private static PostgreSQLContainer<?> container;
+
+  final DataSource dataSource;
+  final JdbcTemplate jdbcTemplate;
+  final TransactionTemplate transactionTemplate;
+  private final JdbcTemplate admin;
+  private final String schema;
+
+  TestDatabase() {
+    String[] server = server();
+    admin = new JdbcTemplate(new DriverManagerDataSource(server[0], server[1], server[2]));
+    schema = "test_" + ProcessHandle.current().pid() + "_" + SCHEMAS.incrementAndGet();
+    admin.execute("DROP SCHEMA IF EXISTS " + schema + " CASCADE");
+    admin.execute("CREATE SCHEMA " + schema);
+
+    DriverManagerDataSource scoped = new DriverManagerDataSource(server[0], server[1], server[2]);
+    Properties properties = new Properties();
+    properties.setProperty("currentSchema", schema);
+    scoped.setConnectionProperties(properties);
+    dataSource = scoped;
+    jdbcTemplate = new JdbcTemplate(dataSource);
+    transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+
+    // As GeocodeController.initDatabase and Hibernate (user_lookups) create them
+    jdbcTemplate.execute("CREATE TABLE users (" +
+        "id SERIAL PRIMARY KEY, " +
+        "email VARCHAR(255) UNIQUE NOT NULL, " +
+        "password_hash VARCHAR(255) NOT NULL, " +
+        "subscription_status VARCHAR(20) DEFAULT 'free', " +
+        "reset_token VARCHAR(500), " +
+        "stripe_customer_id VARCHAR(255))");
+    jdbcTemplate.execute("CREATE TABLE batches (" +
+        "id SERIAL PRIMARY KEY, " +
+        "user_id INTEGER REFERENCES users(id), " +
+        "status VARCHAR(20) DEFAULT 'processing', " +
+        "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+        "results TEXT, " +
+        "total_rows INTEGER DEFAULT 0, " +
+        "processed_rows INTEGER DEFAULT 0)");
+    jdbcTemplate.execute("CREATE TABLE user_lookups (" +
+        "id BIGSERIAL PRIMARY KEY, " +
+        "user_id BIGINT, " +
+        "month_year VARCHAR(255), " +
+        "tier VARCHAR(255), " +
+        "lookup_count INTEGER NOT NULL)");
+  }
+
+  long addUser(String email, String tier) {
+    Long id = jdbcTemplate.queryForObject(
+        "INSERT INTO users (email, password_hash, subscription_status) VALUES (?, 'x', ?) RETURNING id", Long.class, email, tier);
+    return id;
+  }
+
+  @Override
+  public void close() {
+    admin.execute("DROP SCHEMA IF EXISTS " + schema + " CASCADE");
+  }
+
+  /** url, user, password of the server to test against. */
+  private static synchronized String[] server() {
+    String url = System.getenv("TEST_DATABASE_URL");
+    if (url != null && !url.isBlank()) {
+      String user = System.getenv().getOrDefault("TEST_DATABASE_USER", "postgres");
+      String password = System.getenv().getOrDefault("TEST_DATABASE_PASSWORD", "");
+      return new String[] {url, user, password};
+    }
+    if (container == null) {
+      Assumptions.assumeTrue(DockerClientFactory.instance().isDockerAvailable(),
+          "JDBC tests need Docker or TEST_DATABASE_URL");
+      container = new PostgreSQLContainer<>("postgres:16-alpine");
+      container.start();
+    }
+    return new String[] {container.getJdbcUrl(), container.getUsername(), container.getPassword()};
+  }
+}
@@ -0,0 +1,50 @@
+package io.smartgeocode.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenBucketTest {
+
+  private static final long SECOND = 1_000_000_000L;
+
+  @Test
+  void burstUpToCapacityThenWaitsInArrivalOrder() {
+    TokenBucket bucket = new TokenBucket(10, 2);
+
+    assertEquals(0L, bucket.reserve());
+    assertEquals(0L, bucket.reserve());
+    long third = bucket.reserve();
+    long fourth = bucket.reserve();
+
+    // 10/s: one permit every 100 ms, each reservation queued behind the previous one
+    assertTrue(third > 90_000_000L && third <= 100_000_000L, "third waits ~100 ms, was " + third);
+    assertTrue(fourth > 190_000_000L && fourth <= 200_000_000L, "fourth waits ~200 ms, was " + fourth);
+  }
+
+  @Test
+  void unlimitedRateNeverWaits() {
+    TokenBucket bucket = new TokenBucket(0, 1);
+    for (int i = 0; i < 1000; i++) assertEquals(0L, bucket.reserve());
+  }
+
+  @Test
+  void refillsOverTime() throws InterruptedException {
+    TokenBucket bucket = new TokenBucket(100, 1);
+    assertEquals(0L, bucket.reserve());
+    Thread.sleep(30);
+    assertEquals(0L, bucket.reserve());
+  }
+
+  @Test
+  void rateChangeAppliesToTheNextReservation() {
+    TokenBucket bucket = new TokenBucket(1, 1);
+    assertEquals(0L, bucket.reserve());
+    long slow = bucket.reserve();
+    assertTrue(slow > SECOND / 2, "1/s waits about a second, was " + slow);
+
+    bucket.setRate(0);
+    assertEquals(0L, bucket.reserve());
+  }
+}